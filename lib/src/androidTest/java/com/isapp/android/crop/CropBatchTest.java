@@ -0,0 +1,86 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class CropBatchTest extends BaseTestCase {
+    private File dir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = new File(getInstrumentation().getTargetContext().getCacheDir(), "crop-batch-test");
+        dir.mkdirs();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+        super.tearDown();
+    }
+
+    public void testCropsEveryImage() throws Exception {
+        CropBatch.Builder builder = new CropBatch.Builder(getInstrumentation().getTargetContext())
+                .asSquare()
+                .withMaxSize(50, 50)
+                .compression(Bitmap.CompressFormat.PNG)
+                .withThreads(2);
+        for (int i = 0; i < 4; i++) {
+            builder.add(ImageSources.fromBytes(encode(200 + i * 10, 100)), Uri.fromFile(new File(dir, i + ".png")));
+        }
+
+        CropBatch.Report report = builder.build().run();
+
+        assertThat(report.getSuccessCount()).isEqualTo(4);
+        for (int i = 0; i < 4; i++) {
+            CropBatch.Result result = report.getResults().get(i);
+            assertThat(result.getBytesWritten()).isGreaterThan(0);
+            Bitmap cropped = BitmapFactory.decodeFile(result.getOutput().getPath());
+            assertThat(cropped.getWidth()).isEqualTo(50);
+            assertThat(cropped.getHeight()).isEqualTo(50);
+        }
+    }
+
+    public void testBudgetSmallerThanAnImageStillFinishes() throws Exception {
+        CropBatch.Report report = new CropBatch.Builder(getInstrumentation().getTargetContext())
+                .compression(Bitmap.CompressFormat.PNG)
+                .withMemoryBudget(1)
+                .add(ImageSources.fromBytes(encode(200, 100)), Uri.fromFile(new File(dir, "a.png")))
+                .add(ImageSources.fromBytes(encode(100, 200)), Uri.fromFile(new File(dir, "b.png")))
+                .build()
+                .run();
+
+        assertThat(report.getSuccessCount()).isEqualTo(2);
+    }
+
+    public void testFailedImageDoesNotStopOthers() throws Exception {
+        CropBatch.Report report = new CropBatch.Builder(getInstrumentation().getTargetContext())
+                .add(ImageSources.fromBytes(new byte[] {1, 2, 3}), Uri.fromFile(new File(dir, "bad.jpg")))
+                .add(ImageSources.fromBytes(encode(200, 100)), Uri.fromFile(new File(dir, "good.jpg")))
+                .build()
+                .run();
+
+        assertThat(report.getResults().get(0).isSuccessful()).isFalse();
+        assertThat(report.getResults().get(0).getError()).isNotNull();
+        assertThat(report.getResults().get(1).isSuccessful()).isTrue();
+    }
+
+    private static byte[] encode(int width, int height) {
+        Bitmap b = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.compress(Bitmap.CompressFormat.PNG, 100, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,108 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class CropEngineTest extends BaseTestCase {
+    private CropEngine engine;
+    private File output;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        engine = new CropEngine(getInstrumentation().getTargetContext());
+        output = new File(getInstrumentation().getTargetContext().getCacheDir(), "crop-engine-test.png");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        output.delete();
+        super.tearDown();
+    }
+
+    public void testCropsWithoutAView() throws Exception {
+        // The left half is red and the right half is blue
+        ImageSource source = ImageSources.fromBytes(encode(halves(200, 100)));
+        engine.crop(new CropRequest.Builder(source, new Rect(100, 0, 200, 100), Uri.fromFile(output))
+                .compression(Bitmap.CompressFormat.PNG)
+                .build());
+
+        Bitmap cropped = BitmapFactory.decodeFile(output.getPath());
+        assertThat(cropped.getWidth()).isEqualTo(100);
+        assertThat(cropped.getHeight()).isEqualTo(100);
+        assertThat(cropped.getPixel(50, 50)).isEqualTo(Color.BLUE);
+    }
+
+    public void testScalesDownToMaxSize() throws Exception {
+        ImageSource source = ImageSources.fromBytes(encode(halves(200, 100)));
+        engine.crop(new CropRequest.Builder(source, new Rect(0, 0, 200, 100), Uri.fromFile(output))
+                .compression(Bitmap.CompressFormat.PNG)
+                .withMaxSize(50, 50)
+                .build());
+
+        Bitmap cropped = BitmapFactory.decodeFile(output.getPath());
+        assertThat(cropped.getWidth()).isEqualTo(50);
+        assertThat(cropped.getHeight()).isEqualTo(25);
+    }
+
+    public void testMapsRotatedCropRect() throws Exception {
+        // Shown rotated 90 degrees clockwise, the red half is on top
+        ImageSource source = ImageSources.fromBytes(encode(halves(200, 100)));
+        engine.crop(new CropRequest.Builder(source, new Rect(0, 0, 100, 100), Uri.fromFile(output))
+                .compression(Bitmap.CompressFormat.PNG)
+                .withRotation(90, false)
+                .build());
+
+        Bitmap cropped = BitmapFactory.decodeFile(output.getPath());
+        assertThat(cropped.getPixel(50, 50)).isEqualTo(Color.RED);
+    }
+
+    public void testSavesRenditionsFromOneCrop() throws Exception {
+        File small = new File(getInstrumentation().getTargetContext().getCacheDir(), "crop-engine-test-small.png");
+        File thumbnail = new File(getInstrumentation().getTargetContext().getCacheDir(), "crop-engine-test-thumb.jpg");
+        try {
+            ImageSource source = ImageSources.fromBytes(encode(halves(200, 100)));
+            engine.crop(new CropRequest.Builder(source, new Rect(0, 0, 200, 100), Uri.fromFile(output))
+                    .compression(Bitmap.CompressFormat.PNG)
+                    .withRendition(new Rendition(20, 20, Bitmap.CompressFormat.JPEG, 80, Uri.fromFile(thumbnail)))
+                    .withRendition(new Rendition(100, 100, Bitmap.CompressFormat.PNG, 100, Uri.fromFile(small)))
+                    .build());
+
+            assertThat(BitmapFactory.decodeFile(output.getPath()).getWidth()).isEqualTo(200);
+            Bitmap smallCrop = BitmapFactory.decodeFile(small.getPath());
+            assertThat(smallCrop.getWidth()).isEqualTo(100);
+            assertThat(smallCrop.getHeight()).isEqualTo(50);
+            assertThat(smallCrop.getPixel(25, 25)).isEqualTo(Color.RED);
+            Bitmap thumbnailCrop = BitmapFactory.decodeFile(thumbnail.getPath());
+            assertThat(thumbnailCrop.getWidth()).isEqualTo(20);
+            assertThat(thumbnailCrop.getHeight()).isEqualTo(10);
+        } finally {
+            small.delete();
+            thumbnail.delete();
+        }
+    }
+
+    private static Bitmap halves(int width, int height) {
+        Bitmap b = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                b.setPixel(x, y, x < width / 2 ? Color.RED : Color.BLUE);
+            }
+        }
+        return b;
+    }
+
+    private static byte[] encode(Bitmap b) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.compress(Bitmap.CompressFormat.PNG, 100, out);
+        return out.toByteArray();
+    }
+}
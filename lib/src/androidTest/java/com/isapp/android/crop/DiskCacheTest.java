@@ -0,0 +1,56 @@
+package com.isapp.android.crop;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class DiskCacheTest extends BaseTestCase {
+    private File dir;
+    private DiskCache cache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = new File(getInstrumentation().getTargetContext().getCacheDir(), "disk-cache-test");
+        cache = new DiskCache(dir, 250);
+        cache.clear();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        cache.clear();
+        dir.delete();
+        super.tearDown();
+    }
+
+    public void testPutThenGet() throws Exception {
+        File file = cache.put("a", new ByteArrayInputStream(new byte[100]));
+
+        assertThat(file.length()).isEqualTo(100);
+        assertThat(cache.get("a")).isEqualTo(file);
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.getSize()).isEqualTo(100);
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        cache.put("a", new ByteArrayInputStream(new byte[100]));
+        cache.put("b", new ByteArrayInputStream(new byte[100]));
+        cache.get("a");
+        cache.put("c", new ByteArrayInputStream(new byte[100]));
+
+        assertThat(cache.get("a")).isNotNull();
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("c")).isNotNull();
+        assertThat(cache.getSize()).isEqualTo(200);
+    }
+
+    public void testReloadsEntriesFromDisk() throws Exception {
+        cache.put("a", new ByteArrayInputStream(new byte[100]));
+
+        DiskCache reopened = new DiskCache(dir, 250);
+
+        assertThat(reopened.get("a")).isNotNull();
+        assertThat(reopened.getSize()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,86 @@
+package com.isapp.android.crop;
+
+import android.media.ExifInterface;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ExifReaderTest extends BaseTestCase {
+    // SOI, APP1 marker and length, and the EXIF header come before the TIFF header
+    private static final int TIFF_OFFSET = 12;
+
+    public void testReadsLittleEndianOrientationAndThumbnail() throws Exception {
+        ExifReader exif = ExifReader.read(jpeg(ByteOrder.LITTLE_ENDIAN, ExifInterface.ORIENTATION_TRANSVERSE));
+
+        assertThat(exif.orientation).isEqualTo(ExifInterface.ORIENTATION_TRANSVERSE);
+        assertThat(exif.thumbnailOffset).isEqualTo(TIFF_OFFSET + 100);
+        assertThat(exif.thumbnailLength).isEqualTo(50);
+    }
+
+    public void testReadsBigEndianOrientation() throws Exception {
+        ExifReader exif = ExifReader.read(jpeg(ByteOrder.BIG_ENDIAN, ExifInterface.ORIENTATION_ROTATE_90));
+
+        assertThat(exif.orientation).isEqualTo(ExifInterface.ORIENTATION_ROTATE_90);
+    }
+
+    public void testIgnoresNonJpeg() throws Exception {
+        ExifReader exif = ExifReader.read(new ByteArrayInputStream(new byte[] {(byte) 0x89, 'P', 'N', 'G'}));
+
+        assertThat(exif.orientation).isEqualTo(ExifInterface.ORIENTATION_UNDEFINED);
+        assertThat(exif.thumbnailOffset).isEqualTo(-1);
+    }
+
+    public void testMirroredOrientations() {
+        assertThat(CropUtil.getRotation(ExifInterface.ORIENTATION_TRANSPOSE)).isEqualTo(90);
+        assertThat(CropUtil.isFlipped(ExifInterface.ORIENTATION_TRANSPOSE)).isTrue();
+        assertThat(CropUtil.getRotation(ExifInterface.ORIENTATION_FLIP_VERTICAL)).isEqualTo(180);
+        assertThat(CropUtil.isFlipped(ExifInterface.ORIENTATION_FLIP_VERTICAL)).isTrue();
+        assertThat(CropUtil.getRotation(ExifInterface.ORIENTATION_ROTATE_270)).isEqualTo(270);
+        assertThat(CropUtil.isFlipped(ExifInterface.ORIENTATION_ROTATE_270)).isFalse();
+    }
+
+    private static ByteArrayInputStream jpeg(ByteOrder order, int orientation) {
+        ByteBuffer tiff = ByteBuffer.allocate(56).order(order);
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? new byte[] {'I', 'I'} : new byte[] {'M', 'M'});
+        tiff.putShort((short) 42);
+        tiff.putInt(8);
+        // IFD0 with the orientation, then IFD1 with the thumbnail
+        tiff.putShort((short) 1);
+        putEntry(tiff, 0x0112, 3, orientation);
+        tiff.putInt(26);
+        tiff.putShort((short) 2);
+        putEntry(tiff, 0x0201, 4, 100);
+        putEntry(tiff, 0x0202, 4, 50);
+        tiff.putInt(0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        out.write(0xFF);
+        out.write(0xE1);
+        int length = 2 + 6 + tiff.capacity();
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        out.write(new byte[] {'E', 'x', 'i', 'f', 0, 0}, 0, 6);
+        out.write(tiff.array(), 0, tiff.capacity());
+        out.write(0xFF);
+        out.write(0xDA);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static void putEntry(ByteBuffer b, int tag, int type, int value) {
+        b.putShort((short) tag);
+        b.putShort((short) type);
+        b.putInt(1);
+        if (type == 3) {
+            b.putShort((short) value);
+            b.putShort((short) 0);
+        } else {
+            b.putInt(value);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class HighlightViewTest extends BaseTestCase {
+    private static final int DRAG_STEPS = 100;
+
+    private CropImageView imageView;
+    private HighlightView highlightView;
+    private Canvas canvas;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                imageView = new CropImageView(getInstrumentation().getTargetContext());
+                highlightView = new HighlightView(imageView);
+                highlightView.setup(new Matrix(), new Rect(0, 0, 1000, 1000), new RectF(100, 100, 500, 500), false);
+                highlightView.setFocus(true);
+                imageView.add(highlightView);
+                // Laid out around the crop rect, so that dragging it never has to pan the image
+                imageView.layout(0, 0, 1000, 1000);
+            }
+        });
+        canvas = new Canvas(Bitmap.createBitmap(1000, 1000, Bitmap.Config.ARGB_8888));
+    }
+
+    public void testDragDoesNotAllocate() {
+        assertDragDoesNotAllocate();
+    }
+
+    public void testCircleDragDoesNotAllocate() {
+        // Every step grows the circle, so its mask is redrawn at a new size each time
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                imageView.setShape(CropImageView.SHAPE_CIRCLE);
+            }
+        });
+        assertDragDoesNotAllocate();
+    }
+
+    private void assertDragDoesNotAllocate() {
+        final long downTime = SystemClock.uptimeMillis();
+        final MotionEvent down = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, 300, 300, 0);
+        final MotionEvent[] moves = new MotionEvent[DRAG_STEPS];
+        for (int i = 0; i < DRAG_STEPS; i++) {
+            moves[i] = MotionEvent.obtain(downTime, downTime + i, MotionEvent.ACTION_MOVE, 300 + i, 300 + i, 0);
+        }
+        final int[] allocations = new int[1];
+        final float startTop = highlightView.cropRect.top;
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                imageView.onTouchEvent(down);
+
+                // One whole step first, so that objects that are created once and then reused are
+                // not counted. That includes the record Choreographer keeps for a posted callback.
+                dragStep(moves[0]);
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 1; i < DRAG_STEPS; i++) {
+                    dragStep(moves[i]);
+                }
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+            }
+        });
+
+        assertThat(allocations[0]).isZero();
+        // Growing the right edge doesn't move the top, so this is the drag alone
+        assertThat(highlightView.cropRect.top).isEqualTo(startTop + DRAG_STEPS - 1);
+    }
+
+    private void dragStep(MotionEvent move) {
+        imageView.onTouchEvent(move);
+        // Moves are only applied on the next frame
+        imageView.runPendingFrame();
+        highlightView.handleMotion(HighlightView.GROW_RIGHT_EDGE, 1, 0);
+        highlightView.getHit(move.getX(), move.getY());
+        highlightView.draw(canvas);
+    }
+}
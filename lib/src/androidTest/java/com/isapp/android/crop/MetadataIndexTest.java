@@ -0,0 +1,62 @@
+package com.isapp.android.crop;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.ExifInterface;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class MetadataIndexTest extends BaseTestCase {
+    private SharedPreferences prefs;
+    private MetadataIndex index;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        prefs = getInstrumentation().getTargetContext()
+                .getSharedPreferences("metadata-index-test", Context.MODE_PRIVATE);
+        index = new MetadataIndex(prefs);
+        index.clear();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        index.clear();
+        super.tearDown();
+    }
+
+    public void testPutThenGet() {
+        index.put("a|100|1", new MetadataIndex.Entry(4000, 3000, "image/jpeg", ExifInterface.ORIENTATION_ROTATE_90,
+                512, 2048));
+
+        MetadataIndex.Entry entry = index.get("a|100|1");
+        assertThat(entry.width).isEqualTo(4000);
+        assertThat(entry.height).isEqualTo(3000);
+        assertThat(entry.mimeType).isEqualTo("image/jpeg");
+        assertThat(entry.orientation).isEqualTo(ExifInterface.ORIENTATION_ROTATE_90);
+        assertThat(entry.thumbnailOffset).isEqualTo(512);
+        assertThat(entry.thumbnailLength).isEqualTo(2048);
+    }
+
+    public void testChangedIdentityMisses() {
+        index.put("a|100|1", new MetadataIndex.Entry(4000, 3000, null, ExifInterface.ORIENTATION_NORMAL, -1, 0));
+
+        assertThat(index.get("a|100|2")).isNull();
+        assertThat(index.get("a|100|1").mimeType).isNull();
+    }
+
+    public void testTrimsOnlyOnceFull() {
+        for (int i = 0; i < MetadataIndex.MAX_ENTRIES; i++) {
+            index.put("a|" + i, new MetadataIndex.Entry(1, 1, null, ExifInterface.ORIENTATION_NORMAL, -1, 0));
+        }
+        assertThat(prefs.getAll()).hasSize(MetadataIndex.MAX_ENTRIES);
+
+        // Putting an entry that is already there doesn't need room
+        index.put("a|0", new MetadataIndex.Entry(2, 2, null, ExifInterface.ORIENTATION_NORMAL, -1, 0));
+        assertThat(prefs.getAll()).hasSize(MetadataIndex.MAX_ENTRIES);
+
+        index.put("b", new MetadataIndex.Entry(3, 3, null, ExifInterface.ORIENTATION_NORMAL, -1, 0));
+        assertThat(prefs.getAll()).hasSize(MetadataIndex.TRIM_TO_ENTRIES);
+        assertThat(index.get("b").width).isEqualTo(3);
+    }
+}
@@ -0,0 +1,151 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class StripeEncoderTest extends BaseTestCase {
+    // Mean per channel difference allowed between our JPEG and Bitmap.compress()'s, after decoding both
+    private static final double MAX_JPEG_MEAN_ERROR = 3;
+
+    public void testPngMatchesSourceExactly() throws Exception {
+        Bitmap source = pattern(37, 53);
+        Bitmap decoded = decode(encodeInBands(source, Bitmap.CompressFormat.PNG, 100, 7));
+
+        assertSamePixels(decoded, source);
+        assertSamePixels(decoded, decode(compress(source, Bitmap.CompressFormat.PNG, 100)));
+    }
+
+    public void testPngKeepsAlpha() throws Exception {
+        Bitmap source = pattern(16, 16);
+        source.setPixel(3, 4, Color.argb(128, 200, 100, 50));
+        source.setPixel(5, 6, Color.TRANSPARENT);
+        Bitmap decoded = decode(encodeInBands(source, Bitmap.CompressFormat.PNG, 100, 16));
+
+        assertThat(Color.alpha(decoded.getPixel(3, 4))).isEqualTo(128);
+        assertThat(Color.alpha(decoded.getPixel(5, 6))).isEqualTo(0);
+    }
+
+    public void testJpegMatchesCompressAtOddSizes() throws Exception {
+        int[][] sizes = {{1, 1}, {37, 53}, {257, 9}, {8, 8}};
+        for (int[] size : sizes) {
+            Bitmap source = pattern(size[0], size[1]);
+            Bitmap ours = decode(encodeInBands(source, Bitmap.CompressFormat.JPEG, 90, 3));
+            Bitmap theirs = decode(compress(source, Bitmap.CompressFormat.JPEG, 90));
+
+            assertThat(ours.getWidth()).isEqualTo(size[0]);
+            assertThat(ours.getHeight()).isEqualTo(size[1]);
+            assertThat(meanError(ours, theirs)).isLessThan(MAX_JPEG_MEAN_ERROR);
+        }
+    }
+
+    public void testJpegQualityIsScaledLikeCompress() throws Exception {
+        Bitmap source = pattern(64, 64);
+        for (int quality : new int[] {10, 50, 100}) {
+            Bitmap ours = decode(encodeInBands(source, Bitmap.CompressFormat.JPEG, quality, 8));
+            Bitmap theirs = decode(compress(source, Bitmap.CompressFormat.JPEG, quality));
+
+            // Low qualities are blockier, so both are compared to how far compress() is from the source
+            assertThat(meanError(ours, source)).isLessThan(meanError(theirs, source) + MAX_JPEG_MEAN_ERROR);
+        }
+    }
+
+    public void testStripedWriterAcrossBandEdges() throws Exception {
+        // Rows on both sides of two band edges, and a last band that is neither full nor a multiple of 8
+        int height = StripedCropWriter.STRIPE_HEIGHT * 2 + 13;
+        Bitmap source = pattern(45, height);
+        byte[] png = compress(source, Bitmap.CompressFormat.PNG, 100);
+        Rect rect = new Rect(0, 0, source.getWidth(), source.getHeight());
+
+        for (Bitmap.CompressFormat format : new Bitmap.CompressFormat[] {Bitmap.CompressFormat.PNG, Bitmap.CompressFormat.JPEG}) {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(png, 0, png.length, false);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                new StripedCropWriter(Collections.singletonList(decoder), new BitmapPool(0), rect,
+                        rect.width(), rect.height())
+                        .write(StripedCropWriter.newEncoder(format, 95, out, rect.width(), rect.height()));
+            } finally {
+                decoder.recycle();
+            }
+
+            Bitmap decoded = decode(out.toByteArray());
+            if (format == Bitmap.CompressFormat.PNG) {
+                assertSamePixels(decoded, source);
+            } else {
+                assertThat(meanError(decoded, decode(compress(source, format, 95)))).isLessThan(MAX_JPEG_MEAN_ERROR);
+            }
+        }
+    }
+
+    // A smooth opaque gradient with some detail, so that every DCT coefficient matters a little
+    private static Bitmap pattern(int width, int height) {
+        Bitmap b = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / Math.max(1, width - 1);
+                int g = y * 255 / Math.max(1, height - 1);
+                int blue = ((x / 4 + y / 4) % 2) * 64 + 96;
+                b.setPixel(x, y, Color.rgb(r, g, blue));
+            }
+        }
+        return b;
+    }
+
+    private static byte[] encodeInBands(Bitmap b, Bitmap.CompressFormat format, int quality, int bandRows)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StripeEncoder encoder = StripedCropWriter.newEncoder(format, quality, out, b.getWidth(), b.getHeight());
+        int[] pixels = new int[b.getWidth() * bandRows];
+        for (int top = 0; top < b.getHeight(); top += bandRows) {
+            int rows = Math.min(bandRows, b.getHeight() - top);
+            b.getPixels(pixels, 0, b.getWidth(), 0, top, b.getWidth(), rows);
+            encoder.writeRows(pixels, rows);
+        }
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(Bitmap b, Bitmap.CompressFormat format, int quality) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.compress(format, quality, out);
+        return out.toByteArray();
+    }
+
+    private static Bitmap decode(byte[] data) {
+        Bitmap b = BitmapFactory.decodeByteArray(data, 0, data.length);
+        assertNotNull("Output could not be decoded", b);
+        return b;
+    }
+
+    private static void assertSamePixels(Bitmap actual, Bitmap expected) {
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("Pixel " + x + "," + y, expected.getPixel(x, y), actual.getPixel(x, y));
+            }
+        }
+    }
+
+    private static double meanError(Bitmap a, Bitmap b) {
+        assertThat(a.getWidth()).isEqualTo(b.getWidth());
+        assertThat(a.getHeight()).isEqualTo(b.getHeight());
+        long total = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getPixel(x, y);
+                int q = b.getPixel(x, y);
+                total += Math.abs(Color.red(p) - Color.red(q)) + Math.abs(Color.green(p) - Color.green(q))
+                        + Math.abs(Color.blue(p) - Color.blue(q));
+            }
+        }
+        return (double) total / (3L * a.getWidth() * a.getHeight());
+    }
+}
@@ -0,0 +1,70 @@
+package com.isapp.android.crop;
+
+import android.graphics.Matrix;
+import android.graphics.Rect;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TileRendererTest extends BaseTestCase {
+    private static final float DELTA = 0.001F;
+
+    public void testSampleSizeKeepsOneDecodedPixelPerScreenPixel() {
+        assertThat(TileRenderer.calculateSampleSize(4F)).isEqualTo(1);
+        assertThat(TileRenderer.calculateSampleSize(1F)).isEqualTo(1);
+        assertThat(TileRenderer.calculateSampleSize(0.6F)).isEqualTo(1);
+        assertThat(TileRenderer.calculateSampleSize(0.5F)).isEqualTo(2);
+        assertThat(TileRenderer.calculateSampleSize(0.3F)).isEqualTo(2);
+        assertThat(TileRenderer.calculateSampleSize(0.25F)).isEqualTo(4);
+        assertThat(TileRenderer.calculateSampleSize(0.01F)).isEqualTo(64);
+    }
+
+    public void testKeysAreUniqueAcrossLevels() {
+        int maxIndex = (1 << 24) - 1;
+        assertThat(TileRenderer.key(1, 0, 1)).isNotEqualTo(TileRenderer.key(2, 0, 1));
+        assertThat(TileRenderer.key(1, 1, 0)).isNotEqualTo(TileRenderer.key(1, 0, 1));
+        assertThat(TileRenderer.key(1, maxIndex, maxIndex)).isNotEqualTo(TileRenderer.key(2, 0, 0));
+        assertThat(TileRenderer.key(1, maxIndex, 0)).isNotEqualTo(TileRenderer.key(1, 0, maxIndex));
+    }
+
+    public void testKeysSortBySampleSizeFirst() {
+        // The renderer relies on this to draw coarser fallback levels under finer ones
+        int maxIndex = (1 << 24) - 1;
+        assertThat(TileRenderer.key(1, maxIndex, maxIndex)).isLessThan(TileRenderer.key(2, 0, 0));
+        assertThat(TileRenderer.key(2, maxIndex, maxIndex)).isLessThan(TileRenderer.key(4, 0, 0));
+    }
+
+    public void testTileMatrixMapsTileToItsPlaceInTheView() {
+        // The base layer is half the full image size, and is shown at twice its size, offset by (10, 20)
+        Matrix imageMatrix = new Matrix();
+        imageMatrix.setScale(2F, 2F);
+        imageMatrix.postTranslate(10F, 20F);
+        Matrix tileMatrix = new Matrix();
+
+        TileRenderer.setTileMatrix(tileMatrix, imageMatrix, 0.5F, new Rect(512, 256, 768, 512), 1);
+        assertMapsTo(tileMatrix, 0F, 0F, 522F, 276F);
+        assertMapsTo(tileMatrix, 256F, 256F, 778F, 532F);
+
+        // Each decoded pixel of a sampled tile covers sampleSize full image pixels
+        TileRenderer.setTileMatrix(tileMatrix, imageMatrix, 0.5F, new Rect(512, 0, 1024, 512), 2);
+        assertMapsTo(tileMatrix, 0F, 0F, 522F, 20F);
+        assertMapsTo(tileMatrix, 128F, 128F, 778F, 276F);
+    }
+
+    public void testTileMatrixFollowsRotation() {
+        Matrix imageMatrix = new Matrix();
+        imageMatrix.setRotate(90F);
+        Matrix tileMatrix = new Matrix();
+
+        TileRenderer.setTileMatrix(tileMatrix, imageMatrix, 1F, new Rect(256, 0, 512, 256), 1);
+        // (256, 0) in the image is rotated to (0, 256)
+        assertMapsTo(tileMatrix, 0F, 0F, 0F, 256F);
+        assertMapsTo(tileMatrix, 0F, 100F, -100F, 256F);
+    }
+
+    private static void assertMapsTo(Matrix matrix, float x, float y, float expectedX, float expectedY) {
+        float[] point = {x, y};
+        matrix.mapPoints(point);
+        assertEquals(expectedX, point[0], DELTA);
+        assertEquals(expectedY, point[1], DELTA);
+    }
+}
@@ -0,0 +1,247 @@
+package com.isapp.android.crop;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * A process wide pool of Bitmaps that are no longer in use, so that decodes and scales can
+ * reuse their memory (through BitmapFactory.Options.inBitmap or by drawing into them)
+ * instead of allocating new large Bitmaps.
+ *
+ * Bitmaps are bucketed by allocation size, and the least recently pooled Bitmaps are
+ * recycled when the pool goes over its budget or the system is low on memory.
+ */
+class BitmapPool implements ComponentCallbacks2 {
+    // Don't hand out a pooled Bitmap that is more than this many times bigger than needed
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    private static BitmapPool instance;
+
+    private final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final LinkedHashSet<Bitmap> lruBitmaps = new LinkedHashSet<>();
+    private final TreeMap<Integer, LinkedList<Bitmap>> buckets = new TreeMap<>();
+    private long maxBytes;
+    private long currentBytes;
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    static synchronized BitmapPool get(Context context) {
+        if (instance == null) {
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    synchronized void setMaxSize(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    synchronized long getSize() {
+        return currentBytes;
+    }
+
+    // Returns b to the pool (it must not be used by the caller afterwards)
+    synchronized void put(Bitmap b) {
+        if (b == null || b.isRecycled() || lruBitmaps.contains(b)) {
+            return;
+        }
+        int size = getByteCount(b);
+        if (!b.isMutable() || size > maxBytes) {
+            b.recycle();
+            return;
+        }
+
+        LinkedList<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            buckets.put(size, bucket);
+        }
+        bucket.add(b);
+        lruBitmaps.add(b);
+        currentBytes += size;
+
+        trimToSize(maxBytes);
+    }
+
+    /*
+     * Returns a pooled Bitmap that BitmapFactory can decode a width x height image into, or null.
+     * Before KitKat the decoded size must match exactly, and inSampleSize must be 1.
+     */
+    synchronized Bitmap getReusable(int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return getExact(width, height, config);
+        }
+
+        int size = width * height * getBytesPerPixel(config);
+        for (Map.Entry<Integer, LinkedList<Bitmap>> entry = buckets.ceilingEntry(size);
+             entry != null && entry.getKey() <= size * MAX_SIZE_MULTIPLE;
+             entry = buckets.higherEntry(entry.getKey())) {
+            Bitmap b = entry.getValue().peekFirst();
+            if (b != null) {
+                remove(b, entry.getKey());
+                return b;
+            }
+        }
+        return null;
+    }
+
+    // Returns a pooled Bitmap with exactly these dimensions, or null
+    synchronized Bitmap getExact(int width, int height, Bitmap.Config config) {
+        int size = width * height * getBytesPerPixel(config);
+        LinkedList<Bitmap> bucket = buckets.get(size);
+        if (bucket != null) {
+            for (Bitmap b : bucket) {
+                if (b.getWidth() == width && b.getHeight() == height && b.getConfig() == config) {
+                    remove(b, size);
+                    return b;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Returns a mutable width x height Bitmap, reusing a pooled one if possible.
+     * The contents of the Bitmap are undefined.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap b = getReusable(width, height, config);
+        if (b != null) {
+            if (b.getWidth() != width || b.getHeight() != height || b.getConfig() != config) {
+                b.reconfigure(width, height, config);
+            }
+            return b;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    // Returns src scaled to width x height, and returns src to the pool
+    Bitmap scale(Bitmap src, int width, int height) {
+        if (src.getWidth() == width && src.getHeight() == height) {
+            return src;
+        }
+        Bitmap scaled = scaledCopy(src, width, height);
+        put(src);
+        return scaled;
+    }
+
+    // Returns a new Bitmap of src scaled to width x height, leaving src alone
+    Bitmap scaledCopy(Bitmap src, int width, int height) {
+        Bitmap.Config config = src.getConfig() != null ? src.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap scaled = obtain(width, height, config);
+        scaled.eraseColor(0);
+        Canvas canvas = new Canvas(scaled);
+        synchronized (scalePaint) {
+            canvas.drawBitmap(src, null, new Rect(0, 0, width, height), scalePaint);
+        }
+        return scaled;
+    }
+
+    // Sets options up to decode into a pooled Bitmap, if there is a suitable one
+    void prepareOptions(BitmapFactory.Options options, int width, int height) {
+        options.inMutable = true;
+        if (options.inSampleSize > 1 && Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        // Round up, since some decoders do when subsampling
+        int sampleSize = Math.max(1, options.inSampleSize);
+        options.inBitmap = getReusable((width + sampleSize - 1) / sampleSize, (height + sampleSize - 1) / sampleSize,
+                options.inPreferredConfig);
+    }
+
+    synchronized void clear() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // RUNNING_CRITICAL is the last warning before background processes are killed
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(maxBytes / 2);
+            }
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Nothing to do
+    }
+
+    private void trimToSize(long size) {
+        Iterator<Bitmap> iterator = lruBitmaps.iterator();
+        while (currentBytes > size && iterator.hasNext()) {
+            Bitmap b = iterator.next();
+            iterator.remove();
+
+            int byteCount = getByteCount(b);
+            LinkedList<Bitmap> bucket = buckets.get(byteCount);
+            bucket.remove(b);
+            if (bucket.isEmpty()) {
+                buckets.remove(byteCount);
+            }
+            currentBytes -= byteCount;
+            b.recycle();
+        }
+    }
+
+    private void remove(Bitmap b, int size) {
+        LinkedList<Bitmap> bucket = buckets.get(size);
+        bucket.remove(b);
+        if (bucket.isEmpty()) {
+            buckets.remove(size);
+        }
+        lruBitmaps.remove(b);
+        currentBytes -= size;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int getByteCount(Bitmap b) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return b.getAllocationByteCount();
+        }
+        return b.getByteCount();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == null) {
+            return 4;
+        }
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
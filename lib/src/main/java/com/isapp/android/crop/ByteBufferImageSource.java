@@ -0,0 +1,47 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/*
+ * An ImageSource for an image that is already in memory.
+ */
+class ByteBufferImageSource extends CachingImageSource {
+    private final ByteBuffer buffer;
+
+    // The remaining bytes of buffer are the image; buffer itself is not changed
+    ByteBufferImageSource(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public InputStream openStream() {
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    @Override
+    public Bitmap decode(BitmapFactory.Options options) throws IOException {
+        if (buffer.hasArray()) {
+            return BitmapFactory.decodeByteArray(buffer.array(), buffer.arrayOffset(), buffer.remaining(), options);
+        }
+        return super.decode(options);
+    }
+
+    @Override
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        if (buffer.hasArray()) {
+            return BitmapRegionDecoder.newInstance(buffer.array(), buffer.arrayOffset(), buffer.remaining(), false);
+        }
+        return super.newRegionDecoder();
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
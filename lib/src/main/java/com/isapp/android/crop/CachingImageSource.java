@@ -0,0 +1,259 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.media.ExifInterface;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * An ImageSource that probes the image's header and EXIF data once, and
+ * decodes from openStream().
+ *
+ * If the source can identify its image, what the probes find is kept in a
+ * MetadataIndex, so the next source for the same image doesn't probe it at all.
+ */
+abstract class CachingImageSource implements ImageSource {
+    // The header and the EXIF data are read under separate locks, so they can be read in parallel
+    private final Object boundsLock = new Object();
+    private final Object exifLock = new Object();
+    // Working out the identity can do I/O, so it has its own lock, and indexLock only guards the fields below it
+    private final Object identityLock = new Object();
+    private final Object indexLock = new Object();
+
+    private volatile BitmapFactory.Options bounds;
+    private volatile ExifReader exif;
+    // What queryExifOrientation() returned, or -1 before it is asked
+    private volatile int queriedOrientation = -1;
+
+    private volatile boolean identified;
+    private volatile String identity;
+
+    private MetadataIndex index;
+    private boolean indexChecked;
+    private MetadataIndex.Entry indexed;
+
+    @Override
+    public int getWidth() throws IOException {
+        return getBounds().outWidth;
+    }
+
+    @Override
+    public int getHeight() throws IOException {
+        return getBounds().outHeight;
+    }
+
+    @Override
+    public String getMimeType() throws IOException {
+        return getBounds().outMimeType;
+    }
+
+    private BitmapFactory.Options getBounds() throws IOException {
+        synchronized (boundsLock) {
+            if (bounds == null) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                MetadataIndex.Entry entry = getIndexed();
+                if (entry != null) {
+                    options.outWidth = entry.width;
+                    options.outHeight = entry.height;
+                    options.outMimeType = entry.mimeType;
+                    bounds = options;
+                    return bounds;
+                }
+                options.inJustDecodeBounds = true;
+                decode(options);
+                if (options.outWidth <= 0 || options.outHeight <= 0) {
+                    throw new IOException("Not a decodable image");
+                }
+                bounds = options;
+                onProbed();
+            }
+            return bounds;
+        }
+    }
+
+    @Override
+    public int getExifOrientation() throws IOException {
+        // An image that can't be indexed would have its EXIF data read on every open, so a cheaper answer is
+        // taken if the source has one. Indexed images are better off reading it once, for the thumbnail too.
+        if (exif == null && !isIndexable()) {
+            int orientation = queriedOrientation;
+            if (orientation < 0) {
+                orientation = queryExifOrientation();
+                queriedOrientation = orientation;
+            }
+            if (orientation != ExifInterface.ORIENTATION_UNDEFINED) {
+                return orientation;
+            }
+        }
+        return getExif().orientation;
+    }
+
+    /*
+     * The EXIF orientation, if the source knows it without reading the image (from a content provider, say),
+     * or ORIENTATION_UNDEFINED.
+     */
+    protected int queryExifOrientation() {
+        return ExifInterface.ORIENTATION_UNDEFINED;
+    }
+
+    // Where the embedded EXIF thumbnail is in openStream(), or -1 if there is none
+    long getThumbnailOffset() throws IOException {
+        return getExif().thumbnailOffset;
+    }
+
+    int getThumbnailLength() throws IOException {
+        return getExif().thumbnailLength;
+    }
+
+    // Decodes the embedded EXIF thumbnail, or returns null if there is none
+    Bitmap decodeThumbnail(BitmapFactory.Options options) throws IOException {
+        ExifReader exif = getExif();
+        // The thumbnail is inside the EXIF segment, which can't be bigger than 64K
+        if (exif.thumbnailOffset < 0 || exif.thumbnailLength <= 0 || exif.thumbnailLength > 0xFFFF) {
+            return null;
+        }
+        byte[] data = new byte[exif.thumbnailLength];
+        InputStream is = openStream();
+        try {
+            long remaining = exif.thumbnailOffset;
+            while (remaining > 0) {
+                long skipped = is.skip(remaining);
+                if (skipped <= 0) {
+                    return null;
+                }
+                remaining -= skipped;
+            }
+            for (int read = 0; read < data.length; ) {
+                int count = is.read(data, read, data.length - read);
+                if (count < 0) {
+                    return null;
+                }
+                read += count;
+            }
+        } finally {
+            CropUtil.closeSilently(is);
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    private ExifReader getExif() throws IOException {
+        synchronized (exifLock) {
+            if (exif == null) {
+                MetadataIndex.Entry entry = getIndexed();
+                if (entry != null) {
+                    exif = new ExifReader(entry.orientation, entry.thumbnailOffset, entry.thumbnailLength);
+                    return exif;
+                }
+                InputStream is = openStream();
+                try {
+                    exif = ExifReader.read(is);
+                } finally {
+                    CropUtil.closeSilently(is);
+                }
+                onProbed();
+            }
+            return exif;
+        }
+    }
+
+    // Keeps what the probes found in index, once both of them have run
+    void setMetadataIndex(MetadataIndex index) {
+        synchronized (indexLock) {
+            this.index = index;
+        }
+    }
+
+    /*
+     * Identifies the image for the MetadataIndex and the PreviewCache, or returns null if it can't be identified.
+     * The identity has to change whenever the image does (a path alone doesn't, but a path with the file's size
+     * and modification time does).
+     */
+    protected String getIdentity() throws IOException {
+        return null;
+    }
+
+    // The image's identity, worked out once, or null
+    final String identify() {
+        if (!identified) {
+            synchronized (identityLock) {
+                if (!identified) {
+                    try {
+                        identity = getIdentity();
+                    } catch (IOException e) {
+                        // Then it just isn't indexed or cached
+                    }
+                    identified = true;
+                }
+            }
+        }
+        return identity;
+    }
+
+    private boolean isIndexable() {
+        synchronized (indexLock) {
+            if (index == null) {
+                return false;
+            }
+        }
+        return identify() != null;
+    }
+
+    private MetadataIndex.Entry getIndexed() {
+        MetadataIndex index;
+        synchronized (indexLock) {
+            if (indexChecked || this.index == null) {
+                return indexed;
+            }
+            index = this.index;
+        }
+
+        // Both probes may get here at once. They share one identify(), and the index is cheap to ask twice.
+        String identity = identify();
+        MetadataIndex.Entry entry = identity != null ? index.get(identity) : null;
+
+        synchronized (indexLock) {
+            if (!indexChecked) {
+                indexChecked = true;
+                indexed = entry;
+            }
+            return indexed;
+        }
+    }
+
+    private void onProbed() {
+        synchronized (indexLock) {
+            BitmapFactory.Options bounds = this.bounds;
+            ExifReader exif = this.exif;
+            if (index == null || identity == null || indexed != null || bounds == null || exif == null) {
+                return;
+            }
+            indexChecked = true;
+            indexed = new MetadataIndex.Entry(bounds.outWidth, bounds.outHeight, bounds.outMimeType,
+                    exif.orientation, exif.thumbnailOffset, exif.thumbnailLength);
+            index.put(identity, indexed);
+        }
+    }
+
+    @Override
+    public Bitmap decode(BitmapFactory.Options options) throws IOException {
+        InputStream is = openStream();
+        try {
+            return BitmapFactory.decodeStream(is, null, options);
+        } finally {
+            CropUtil.closeSilently(is);
+        }
+    }
+
+    @Override
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        InputStream is = openStream();
+        try {
+            return BitmapRegionDecoder.newInstance(is, false);
+        } finally {
+            CropUtil.closeSilently(is);
+        }
+    }
+}
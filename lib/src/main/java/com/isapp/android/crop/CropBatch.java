@@ -0,0 +1,507 @@
+package com.isapp.android.crop;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Applies the same crop (an aspect ratio and a maximum size) to many images at once, with no
+ * {@link CropImageView}s. Each image gets the largest crop with the aspect ratio that is centered on it.
+ *
+ * <br/><br/>Images are decoded and encoded on separate threads, so one image is encoded while the next is
+ * decoded, and an image is only started once the memory its Bitmaps need fits in the batch's memory budget.
+ */
+public class CropBatch {
+    // Memory budget permits are counted in KB, so that a budget fits in an int
+    private static final int PERMIT_BYTES = 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final CropEngine engine;
+    private final BitmapPool bitmapPool;
+    private final MetadataIndex metadataIndex;
+    private final List<Item> items;
+    private final Bitmap.CompressFormat compressFormat;
+    private final int compressionQuality;
+    private final int aspectX;
+    private final int aspectY;
+    private final int maxSizeWidth;
+    private final int maxSizeHeight;
+    private final int threads;
+    private final int budgetPermits;
+
+    private static class Item {
+        final ImageSource source;
+        final Uri output;
+
+        Item(ImageSource source, Uri output) {
+            this.source = source;
+            this.output = output;
+        }
+    }
+
+    // One step of one image, queued on an executor. A job that never runs still owns the image's source,
+    // and whatever else it holds, so abandon() gives them up instead.
+    private abstract static class Job implements Runnable {
+        abstract void abandon();
+    }
+
+    /**
+     * What happened to one image of the batch
+     */
+    public static class Result {
+        private final Uri output;
+        private volatile Throwable error;
+        private volatile long bytesWritten;
+        private volatile long decodeMillis;
+        private volatile long encodeMillis;
+
+        private Result(Uri output) {
+            this.output = output;
+        }
+
+        public Uri getOutput() {
+            return output;
+        }
+
+        /**
+         * @return {@code true} if the crop was saved to {@link #getOutput()}
+         */
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        /**
+         * @return why the crop wasn't saved, or {@code null} if it was
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * @return how long the image took to decode and scale, in milliseconds
+         */
+        public long getDecodeMillis() {
+            return decodeMillis;
+        }
+
+        /**
+         * @return how long the crop took to encode and write, in milliseconds
+         */
+        public long getEncodeMillis() {
+            return encodeMillis;
+        }
+    }
+
+    /**
+     * The results of a whole batch, in the order the images were added, and how fast it ran
+     */
+    public static class Report {
+        private final List<Result> results;
+        private final long elapsedMillis;
+
+        private Report(List<Result> results, long elapsedMillis) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public int getSuccessCount() {
+            int count = 0;
+            for (Result result : results) {
+                if (result.isSuccessful()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return the images saved per second of the batch's wall clock time
+         */
+        public float getImagesPerSecond() {
+            return elapsedMillis == 0 ? 0 : getSuccessCount() * 1000F / elapsedMillis;
+        }
+
+        /**
+         * @return the bytes of output written per second of the batch's wall clock time
+         */
+        public float getBytesPerSecond() {
+            if (elapsedMillis == 0) {
+                return 0;
+            }
+            long bytes = 0;
+            for (Result result : results) {
+                bytes += result.getBytesWritten();
+            }
+            return bytes * 1000F / elapsedMillis;
+        }
+    }
+
+    private CropBatch(Builder builder) {
+        engine = new CropEngine(builder.context);
+        bitmapPool = BitmapPool.get(builder.context);
+        metadataIndex = MetadataIndex.get(builder.context);
+        items = new ArrayList<>(builder.items);
+        compressFormat = builder.compressFormat;
+        compressionQuality = builder.compressionQuality;
+        aspectX = builder.aspectX;
+        aspectY = builder.aspectY;
+        maxSizeWidth = builder.maxSizeWidth;
+        maxSizeHeight = builder.maxSizeHeight;
+        threads = builder.threads;
+        budgetPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, builder.memoryBudget / PERMIT_BYTES));
+    }
+
+    /**
+     * Crops every image, blocking until they are all done. A failed image doesn't stop the others, and
+     * doesn't leave a partly written output behind. Every source is closed once its image is done, or once
+     * the batch is stopped.
+     *
+     * @throws java.lang.InterruptedException if the thread is interrupted, which stops the batch
+     * @throws java.lang.IllegalStateException if this is called on the main thread
+     */
+    public Report run() throws InterruptedException {
+        if(Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("You can't call CropBatch.run() on the main thread");
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final Semaphore budget = new Semaphore(budgetPermits);
+        final CountDownLatch done = new CountDownLatch(items.size());
+        final ExecutorService decoders = Executors.newFixedThreadPool(threads);
+        final ExecutorService encoders = Executors.newFixedThreadPool(threads);
+        List<Result> results = new ArrayList<>(items.size());
+        // Items before this one are done, or owned by a job
+        int started = 0;
+        try {
+            for (final Item item : items) {
+                final Result result = new Result(item.output);
+                results.add(result);
+
+                final CropRequest request;
+                final int permits;
+                try {
+                    request = newCropRequest(item);
+                    permits = (int) Math.min(budgetPermits, (estimateBytes(request) + PERMIT_BYTES - 1) / PERMIT_BYTES);
+                } catch (IOException | RuntimeException e) {
+                    result.error = e;
+                    CropUtil.closeSilently(item.source);
+                    done.countDown();
+                    started++;
+                    continue;
+                }
+
+                // Waits here, in order, until earlier images have made room
+                budget.acquire(permits);
+                decoders.execute(new Job() {
+                    @Override
+                    public void run() {
+                        final CropTask task = new CropTask(null, null);
+                        long decodeStart = SystemClock.elapsedRealtime();
+                        Bitmap decoded;
+                        try {
+                            decoded = engine.decode(request, task);
+                        } catch (Throwable e) {
+                            result.decodeMillis = SystemClock.elapsedRealtime() - decodeStart;
+                            finish(item, result, e, budget, permits, done);
+                            return;
+                        }
+                        result.decodeMillis = SystemClock.elapsedRealtime() - decodeStart;
+                        final Bitmap croppedImage = decoded;
+
+                        Job encode = new Job() {
+                            @Override
+                            public void run() {
+                                long encodeStart = SystemClock.elapsedRealtime();
+                                Throwable error = null;
+                                try {
+                                    engine.encode(request, croppedImage, task);
+                                } catch (Throwable e) {
+                                    error = e;
+                                } finally {
+                                    bitmapPool.put(croppedImage);
+                                    result.encodeMillis = SystemClock.elapsedRealtime() - encodeStart;
+                                    result.bytesWritten = task.getBytesWritten();
+                                }
+                                if (error != null) {
+                                    // The output may have been partly written
+                                    engine.discardOutput(item.output);
+                                }
+                                finish(item, result, error, budget, permits, done);
+                            }
+
+                            @Override
+                            void abandon() {
+                                bitmapPool.put(croppedImage);
+                                finish(item, result, stopped(), budget, permits, done);
+                            }
+                        };
+                        try {
+                            encoders.execute(encode);
+                        } catch (RejectedExecutionException e) {
+                            // The batch was stopped while this image was decoding
+                            encode.abandon();
+                        }
+                    }
+
+                    @Override
+                    void abandon() {
+                        finish(item, result, stopped(), budget, permits, done);
+                    }
+                });
+                started++;
+            }
+            done.await();
+        } finally {
+            // Jobs that were still queued when the batch stopped, and images that were never started,
+            // still have their sources open. Jobs that are running finish on their own.
+            for (Runnable job : decoders.shutdownNow()) {
+                ((Job) job).abandon();
+            }
+            for (Runnable job : encoders.shutdownNow()) {
+                ((Job) job).abandon();
+            }
+            for (int i = started; i < items.size(); i++) {
+                CropUtil.closeSilently(items.get(i).source);
+            }
+        }
+        return new Report(results, SystemClock.elapsedRealtime() - start);
+    }
+
+    private static Throwable stopped() {
+        return new CancellationException("The batch was stopped");
+    }
+
+    private static void finish(Item item, Result result, Throwable error, Semaphore budget, int permits,
+                               CountDownLatch done) {
+        result.error = error;
+        CropUtil.closeSilently(item.source);
+        budget.release(permits);
+        done.countDown();
+    }
+
+    // Probes the image's size and orientation, and centers the largest crop with the aspect ratio on it
+    private CropRequest newCropRequest(Item item) throws IOException {
+        if (item.source instanceof CachingImageSource) {
+            ((CachingImageSource) item.source).setMetadataIndex(metadataIndex);
+        }
+        int width = item.source.getWidth();
+        int height = item.source.getHeight();
+        if (CropUtil.getRotation(item.source.getExifOrientation()) % 180 != 0) {
+            int temp = width;
+            //noinspection SuspiciousNameCombination
+            width = height;
+            height = temp;
+        }
+
+        int cropWidth = width;
+        int cropHeight = height;
+        if (aspectX != 0 && aspectY != 0) {
+            if ((long) width * aspectY > (long) height * aspectX) {
+                cropWidth = Math.max(1, (int) ((long) height * aspectX / aspectY));
+            } else {
+                cropHeight = Math.max(1, (int) ((long) width * aspectY / aspectX));
+            }
+        }
+        int x = (width - cropWidth) / 2;
+        int y = (height - cropHeight) / 2;
+
+        CropRequest.Builder request = new CropRequest.Builder(item.source,
+                new Rect(x, y, x + cropWidth, y + cropHeight), item.output)
+                .compression(compressFormat, compressionQuality);
+        if (maxSizeWidth > 0 && maxSizeHeight > 0) {
+            request.withMaxSize(maxSizeWidth, maxSizeHeight);
+        }
+        return request.build();
+    }
+
+    // The most memory a crop's Bitmaps use at once: the decoded region, and the output it is scaled to
+    private static long estimateBytes(CropRequest request) {
+        Point size = CropEngine.getOutputSize(request);
+        Rect rect = request.cropRect;
+        int sampleSize = CropUtil.calculateInSampleSize(rect.width(), rect.height(), size.x, size.y);
+        long decoded = (long) (rect.width() / sampleSize) * (rect.height() / sampleSize) * BYTES_PER_PIXEL;
+        long output = (long) size.x * size.y * BYTES_PER_PIXEL;
+        return decoded > output ? decoded + output : decoded;
+    }
+
+    public static class Builder {
+        private final Context context;
+        private final List<Item> items = new ArrayList<>();
+        private Bitmap.CompressFormat compressFormat = Bitmap.CompressFormat.JPEG;
+        private int compressionQuality = 100;
+        private int aspectX;
+        private int aspectY;
+        private int maxSizeWidth;
+        private int maxSizeHeight;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+        /**
+         * @param context Any Context (the application Context is kept)
+         *
+         * @throws java.lang.IllegalArgumentException if {@code context} is {@code null}
+         */
+        public Builder(Context context) {
+            if(context == null) {
+                throw new IllegalArgumentException("Context cannot be null");
+            }
+            this.context = context.getApplicationContext();
+        }
+
+        /**
+         * Add an image to the batch
+         *
+         * @param input Input image URI
+         * @param output Output image URI
+         *
+         * @throws java.lang.IllegalArgumentException if {@code input} or {@code output} is {@code null}
+         */
+        public Builder add(Uri input, Uri output) {
+            return add(input == null ? null : ImageSources.fromUri(context, input), output);
+        }
+
+        /**
+         * Add an image from any {@link ImageSource} to the batch. The source is closed once its image is done.
+         *
+         * @param source Input image
+         * @param output Output image URI
+         *
+         * @throws java.lang.IllegalArgumentException if {@code source} or {@code output} is {@code null}
+         */
+        public Builder add(ImageSource source, Uri output) {
+            if(source == null) {
+                throw new IllegalArgumentException("Input cannot be null");
+            }
+            if(output == null) {
+                throw new IllegalArgumentException("Output URI cannot be null");
+            }
+            items.add(new Item(source, output));
+            return this;
+        }
+
+        /**
+         * Sets the type of compression the outputs will be saved as.
+         * The outputs will be saved at full quality
+         *
+         * @param compressFormat The compression format to use
+         */
+        public Builder compression(Bitmap.CompressFormat compressFormat) {
+            return compression(compressFormat, 100);
+        }
+
+        /**
+         * Sets the type of compression the outputs will be saved as
+         * and sets the compression quality that will be used
+         *
+         * @param compressFormat The compression format to use
+         * @param compressionQuality The compression quality to use (must be 1-100)
+         *
+         * @throws java.lang.IllegalArgumentException if {@code compressFormat} is {@code null} or
+         * {@code compressionQuality <= 0 || compressionQuality > 100}
+         */
+        public Builder compression(Bitmap.CompressFormat compressFormat, int compressionQuality) {
+            if(compressFormat == null) {
+                throw new IllegalArgumentException("CompressFormat cannot be null");
+            }
+            if(compressionQuality <=0 || compressionQuality > 100) {
+                throw new IllegalArgumentException(String.format("Illegal value for compressionQuality - %d", compressionQuality));
+            }
+            this.compressFormat = compressFormat;
+            this.compressionQuality = compressionQuality;
+            return this;
+        }
+
+        /**
+         * Set fixed aspect ratio for the crops. Without one, the whole image is kept.
+         *
+         * @param x Aspect X
+         * @param y Aspect Y
+         */
+        public Builder withAspectRatio(int x, int y) {
+            aspectX = x;
+            aspectY = y;
+            return this;
+        }
+
+        /**
+         * Crops with fixed 1:1 aspect ratio
+         */
+        public Builder asSquare() {
+            aspectX = 1;
+            aspectY = 1;
+            return this;
+        }
+
+        /**
+         * Set maximum crop size
+         *
+         * @param width Max width
+         * @param height Max height
+         */
+        public Builder withMaxSize(int width, int height) {
+            maxSizeWidth = width;
+            maxSizeHeight = height;
+            return this;
+        }
+
+        /**
+         * Set how many images are decoded at once, and how many are encoded at once. By default this is the
+         * number of processors.
+         *
+         * @throws java.lang.IllegalArgumentException if {@code threads <= 0}
+         */
+        public Builder withThreads(int threads) {
+            if(threads <= 0) {
+                throw new IllegalArgumentException(String.format("Illegal value for threads - %d", threads));
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Set how much memory the Bitmaps of the images being cropped can use at once. Images wait to be
+         * started until earlier ones have freed enough of it; an image that needs more than the whole budget
+         * is cropped on its own. By default this is a quarter of the heap.
+         *
+         * @throws java.lang.IllegalArgumentException if {@code bytes <= 0}
+         */
+        public Builder withMemoryBudget(long bytes) {
+            if(bytes <= 0) {
+                throw new IllegalArgumentException(String.format("Illegal value for bytes - %d", bytes));
+            }
+            memoryBudget = bytes;
+            return this;
+        }
+
+        public CropBatch build() {
+            return new CropBatch(this);
+        }
+    }
+}
@@ -4,14 +4,23 @@ import android.content.Context;
 import android.graphics.*;
 import android.net.Uri;
 import android.opengl.GLES10;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.Looper;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A utility class that helps crop images. Make sure to call {@link CropController#release} when you are done.
@@ -21,103 +30,318 @@ public class CropController {
 
     private static final int SIZE_DEFAULT = 2048;
     private static final int SIZE_LIMIT = 4096;
+    private static final int SIZE_TILED_BASE = 1024;
+    private static final int SIZE_QUICK_PREVIEW = 256;
+
+    // A thumbnail with an aspect ratio further off than this is letterboxed, so it can't stand in for the image
+    private static final float MAX_THUMBNAIL_ASPECT_ERROR = 0.02F;
+
+    private static final String STATE_CROP_RECT = "com.isapp.android.crop.CropRect";
+    private static final String STATE_SUPP_MATRIX = "com.isapp.android.crop.SuppMatrix";
+
+    /*
+     * The lifecycle. LOADING and SAVING are left by the background thread doing the work, which uses the
+     * source meanwhile, so a release() during either leaves closing the source to that thread.
+     */
+    private static final int STATE_LOADING = 0;
+    private static final int STATE_READY = 1;
+    private static final int STATE_SAVING = 2;
+    private static final int STATE_DONE = 3;
+    private static final int STATE_FAILED = 4;
+    private static final int STATE_RELEASED = 5;
+
+    // Loads and saves images off of the main thread
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
 
     private Builder builder;
 
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private BitmapPool bitmapPool;
+    private PreviewCache previewCache;
+    // Saves the crop; the controller only adds the UI around it
+    private CropEngine engine;
+
+    // How the image is oriented for display: rotated clockwise, then maybe mirrored horizontally
     private int exifRotation;
+    private boolean exifFlipped;
 
     private int sampleSize;
     private RotateBitmap rotateBitmap;
-    private HighlightView cropView;
-
-    private AtomicBoolean saving = new AtomicBoolean(false);
-    private AtomicBoolean released = new AtomicBoolean(false);
-
-    private boolean error = false;
+    // Pixels of the source per pixel of what the image view shows (the quick preview, then the preview)
+    private volatile float displayedScale;
+    private BitmapRegionDecoder tileDecoder;
+    // Created on the main thread, and read by the save thread
+    private volatile HighlightView cropView;
+
+    // The preview and the tile decoder are published to other threads by the move out of LOADING
+    private final AtomicInteger state = new AtomicInteger(STATE_LOADING);
+    // Set by any failure. The thread that leaves LOADING or SAVING moves to FAILED if it is set.
+    private volatile boolean failed = false;
+
+    // Only accessed on the main thread
+    private boolean loaded = false;
+    private boolean started = false;
+    private RotateBitmap quickPreview;
+    private float quickPreviewScale;
+    private RotateBitmap displayed;
+    private boolean croppedImageShown;
 
     private CropController() {}
 
     private CropController(Builder builder) {
         this.builder = builder;
 
-        setup();
-    }
-
-    private void setup() {
         CropImageView imageView = builder.imageView.get();
-        if(imageView == null) {
+        final Context context = imageView == null ? null : imageView.getContext();
+        if(context == null) {
             if(builder.errorListener != null) {
                 builder.errorListener.onFatalError(new IllegalStateException("The CropImageView is null or not attached to a Context"));
             }
-            error = true;
+            failed = true;
+            state.set(STATE_FAILED);
             return;
         }
+        bitmapPool = BitmapPool.get(context);
+        previewCache = PreviewCache.get(context);
+        engine = new CropEngine(context);
 
-        Context context = imageView.getContext();
-        if(context == null) {
-            if(builder.errorListener != null) {
-                builder.errorListener.onFatalError(new IllegalStateException("The CropImageView is null or not attached to a Context"));
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                setup();
+            }
+        });
+    }
+
+    // Runs on a background thread, and hands the preview to the main thread when it is ready
+    private void setup() {
+        // The EXIF probe doesn't depend on the bounds decode, so let them overlap
+        Future<Integer> exifOrientationFuture = EXECUTOR.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return builder.source.getExifOrientation();
+            }
+        });
+
+        try {
+            // When tiling, the preview is only a small base layer, and detail is decoded on demand
+            int maxSize = builder.tiledPreview ? SIZE_TILED_BASE : getMaxImageSize();
+            int width = builder.source.getWidth();
+            int height = builder.source.getHeight();
+            sampleSize = calculateBitmapSampleSize(width, height, maxSize);
+            int exifOrientation = exifOrientationFuture.get();
+            exifRotation = CropUtil.getRotation(exifOrientation);
+            exifFlipped = CropUtil.isFlipped(exifOrientation);
+
+            // A controller recreated for the same image (after a rotation, say) reuses the preview
+            String identity = builder.source instanceof CachingImageSource
+                    ? ((CachingImageSource) builder.source).identify() : null;
+            Bitmap preview = identity == null ? null : previewCache.get(identity, sampleSize);
+            if (preview == null) {
+                if (builder.progressive) {
+                    loadQuickPreview(width, height);
+                }
+                preview = decodePreview(width, height);
+                if (identity != null && preview != null) {
+                    previewCache.put(identity, sampleSize, preview);
+                }
+            }
+
+            rotateBitmap = new RotateBitmap(preview, exifRotation, exifFlipped);
+
+            if (builder.tiledPreview && sampleSize > 1) {
+                tileDecoder = builder.source.newRegionDecoder();
+            }
+        } catch (Throwable e) {
+            final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            failed = true;
+            if (finishLoading()) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(!isReleased() && builder.errorListener != null) {
+                            builder.errorListener.onFatalError(cause);
+                        }
+                    }
+                });
             }
-            error = true;
             return;
         }
 
-        exifRotation = CropUtil.getExifRotation(CropUtil.getFromMediaUri(context, builder.input));
+        if (!finishLoading()) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onLoaded();
+            }
+        });
+    }
+
+    // Leaves LOADING. If the controller was released meanwhile, releases what was loaded and returns false.
+    private boolean finishLoading() {
+        if (state.compareAndSet(STATE_LOADING, failed ? STATE_FAILED : STATE_READY)) {
+            return true;
+        }
+        if (rotateBitmap != null) {
+            recycle(rotateBitmap.getBitmap());
+            rotateBitmap.setBitmap(null);
+        }
+        if (tileDecoder != null) {
+            tileDecoder.recycle();
+            tileDecoder = null;
+        }
+        builder.release();
+        return false;
+    }
 
-        InputStream is = null;
+    // Shows a small version of the image while the preview decodes. Not being able to isn't an error.
+    private void loadQuickPreview(int width, int height) {
+        final Bitmap quick;
         try {
-            sampleSize = calculateBitmapSampleSize(context, builder.input);
-            is = context.getContentResolver().openInputStream(builder.input);
-            BitmapFactory.Options option = new BitmapFactory.Options();
-            option.inSampleSize = sampleSize;
-            rotateBitmap = new RotateBitmap(BitmapFactory.decodeStream(is, null, option), exifRotation);
-        } catch (Throwable e) {
-            if(builder.errorListener != null) {
-                builder.errorListener.onFatalError(e);
+            quick = decodeQuickPreview(width, height);
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        if (quick == null) {
+            return;
+        }
+        final RotateBitmap preview = new RotateBitmap(quick, exifRotation, exifFlipped);
+        final float scale = (float) width / quick.getWidth();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onQuickPreviewLoaded(preview, scale);
+            }
+        });
+    }
+
+    // Returns the EXIF thumbnail, or a coarse decode, or null if neither would be smaller than the preview
+    private Bitmap decodeQuickPreview(int width, int height) throws IOException {
+        if (builder.source instanceof CachingImageSource) {
+            Bitmap thumbnail = ((CachingImageSource) builder.source).decodeThumbnail(new BitmapFactory.Options());
+            if (thumbnail != null) {
+                float aspectError = (float) thumbnail.getWidth() * height / (thumbnail.getHeight() * width) - 1F;
+                if (Math.abs(aspectError) <= MAX_THUMBNAIL_ASPECT_ERROR && thumbnail.getWidth() < width / sampleSize) {
+                    return thumbnail;
+                }
+                thumbnail.recycle();
             }
-            error = true;
-        } finally {
-            CropUtil.closeSilently(is);
+        }
+
+        int quickSampleSize = calculateBitmapSampleSize(width, height, SIZE_QUICK_PREVIEW);
+        if (quickSampleSize <= sampleSize) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = quickSampleSize;
+        return builder.source.decode(options);
+    }
+
+    private void onQuickPreviewLoaded(RotateBitmap preview, float scale) {
+        if(isReleased() || loaded) {
+            recycle(preview.getBitmap());
+            return;
+        }
+
+        quickPreview = preview;
+        quickPreviewScale = scale;
+        if(started) {
+            show(quickPreview, quickPreviewScale);
+        }
+    }
+
+    private void onLoaded() {
+        // The quick preview is replaced by show(), unless it was never shown
+        if (quickPreview != null && quickPreview != displayed) {
+            recycle(quickPreview.getBitmap());
+        }
+        quickPreview = null;
+
+        if(isReleased()) {
+            // release() already recycled the preview and the tile decoder
+            return;
+        }
+
+        loaded = true;
+        if(started) {
+            show(rotateBitmap, sampleSize);
         }
     }
 
     /**
-     * This should be called immediately after this {@link CropController} is instantiated.
+     * This should be called immediately after this {@link CropController} is instantiated, on the main thread.
+     * The image is loaded in the background, and will be shown as soon as it is ready.
      *
      * @return {@code false} if there was some error (do not use this object if that is the case)
      */
     public boolean start() {
-        final CropImageView imageView = builder.imageView.get();
-        if(error || imageView == null) {
+        if(failed || isReleased() || builder.imageView.get() == null) {
             return false;
         }
 
-        imageView.setImageRotateBitmapResetBase(rotateBitmap, true);
+        started = true;
+        if(loaded) {
+            show(rotateBitmap, sampleSize);
+        } else if(quickPreview != null) {
+            show(quickPreview, quickPreviewScale);
+        }
+
+        return true;
+    }
+
+    // Shows preview, where a pixel is scale pixels of the source
+    private void show(RotateBitmap preview, float scale) {
+        final CropImageView imageView = builder.imageView.get();
+        if(imageView == null) {
+            fail();
+            return;
+        }
+
+        RotateBitmap previous = displayed;
+        displayed = preview;
+        displayedScale = scale;
+        if (previous != null) {
+            // Swap the quick preview for the real one, keeping the zoom and the crop rect
+            imageView.replaceImageRotateBitmap(preview, (float) preview.getWidth() / previous.getWidth());
+            showTiles(imageView);
+            return;
+        }
+
+        imageView.setImageRotateBitmapResetBase(preview, true);
+        showTiles(imageView);
 
         imageView.post(new Runnable() {
             @Override
             public void run() {
+                if(isReleased()) {
+                    return;
+                }
                 final CropImageView imageView = builder.imageView.get();
                 if(imageView == null) {
                     return;
                 }
 
-                if (imageView.getScale() == 1F) {
+                if (builder.savedSuppMatrix != null) {
+                    imageView.setSuppMatrix(builder.savedSuppMatrix);
+                } else if (imageView.getScale() == 1F) {
                     imageView.center(true, true);
                 }
 
                 crop(imageView);
             }
         });
+    }
 
-        return true;
+    // Tiles only line up with the preview, so they wait for it
+    private void showTiles(CropImageView imageView) {
+        if (loaded && tileDecoder != null) {
+            imageView.setTileSource(tileDecoder);
+            tileDecoder = null;
+        }
     }
 
-    /*
-     * TODO
-     * This should use the decode/crop/encode single step API so that the whole
-     * (possibly large) Bitmap doesn't need to be read into memory
-     */
     /**
      * Save the result of the crop. This method must be called in a background thread.
      *
@@ -126,47 +350,111 @@ public class CropController {
      * @return {@code false} if there was some error (do not use this object if that is the case)
      */
     public boolean save() {
+        return save(new CropTask(mainHandler, builder.progressListener));
+    }
+
+    /**
+     * Save the result of the crop on the {@link Builder#withExecutor(Executor) executor}. This can be called
+     * on any thread, but the executor must not run it on the main thread.
+     *
+     * @return a handle to wait for, or cancel, the save. Its result is {@code false} if there was some error
+     * (do not use this object if that is the case)
+     */
+    public CropTask saveAsync() {
+        final CropTask task = new CropTask(mainHandler, builder.progressListener);
+        task.start(builder.executor != null ? builder.executor : EXECUTOR, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return save(task);
+            }
+        });
+        return task;
+    }
+
+    private boolean save(CropTask task) {
         if(Looper.myLooper() == Looper.getMainLooper()) {
             throw new IllegalStateException("You can't call CropController.save() on the main thread");
         }
 
-        if (error || cropView == null || saving.getAndSet(true)) {
+        if (cropView == null || !state.compareAndSet(STATE_READY, STATE_SAVING)) {
             return false;
         }
 
         CropImageView imageView = builder.imageView.get();
         if(imageView == null) {
-            error = true;
+            fail();
+            finishSave();
             return false;
         }
         imageView.setSaving(true);
 
-        Context context = imageView.getContext();
-        if(context == null) {
-            error = true;
+        try {
+            return saveCrop(imageView, task);
+        } catch (CancellationException e) {
+            engine.discardOutput(builder.output);
+            for (Rendition rendition : builder.renditions) {
+                engine.discardOutput(rendition.output);
+            }
+            if (!builder.previewKeptOnSave) {
+                // The preview was released to make room for the crop
+                fail();
+            }
             return false;
+        } finally {
+            imageView.setSaving(false);
+            finishSave();
+        }
+    }
+
+    // Leaves SAVING. A save that kept the preview can be followed by another one.
+    private void finishSave() {
+        int next = failed ? STATE_FAILED : (builder.previewKeptOnSave ? STATE_READY : STATE_DONE);
+        if (!state.compareAndSet(STATE_SAVING, next)) {
+            // Released during the save, which was still using the source
+            builder.release();
         }
+    }
 
-        final Bitmap croppedImage;
-        Rect r = cropView.getScaledCropRect(sampleSize);
-        int width = r.width();
-        int height = r.height();
+    // Fails the controller. LOADING and SAVING are left to the thread doing the work, which sees failed.
+    private void fail() {
+        failed = true;
+        state.compareAndSet(STATE_READY, STATE_FAILED);
+    }
 
-        int outWidth = width;
-        int outHeight = height;
-        if (builder.maxSizeWidth > 0 && builder.maxSizeHeight > 0 && (width > builder.maxSizeWidth || height > builder.maxSizeHeight)) {
-            float ratio = (float) width / (float) height;
-            if ((float) builder.maxSizeWidth / (float) builder.maxSizeHeight > ratio) {
-                outHeight = builder.maxSizeHeight;
-                outWidth = (int) ((float) builder.maxSizeHeight * ratio + .5f);
-            } else {
-                outWidth = builder.maxSizeWidth;
-                outHeight = (int) ((float) builder.maxSizeWidth / ratio + .5f);
+    private boolean isReleased() {
+        return state.get() == STATE_RELEASED;
+    }
+
+    private boolean saveCrop(CropImageView imageView, CropTask task) {
+        final CropRequest request;
+        try {
+            request = newCropRequest(cropView.getScaledCropRect(displayedScale));
+        } catch (final IllegalArgumentException e) {
+            if(builder.errorListener != null) {
+                imageView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        builder.errorListener.onFatalError(e);
+                    }
+                });
             }
+            fail();
+            return false;
+        }
+
+        if (!builder.previewKeptOnSave) {
+            releasePreview(imageView);
         }
 
+        if (engine.isStriped(request)) {
+            boolean success = saveStriped(imageView, request, task);
+            notifyCropFinished(imageView, success);
+            return success;
+        }
+
+        Bitmap decoded = null;
         try {
-            croppedImage = decodeRegionCrop(imageView, context, r, outWidth, outHeight);
+            decoded = engine.decode(request, task);
         } catch (final IllegalArgumentException e) {
             if(builder.errorListener != null) {
                 imageView.post(new Runnable() {
@@ -176,25 +464,46 @@ public class CropController {
                     }
                 });
             }
-            error = true;
+            fail();
+            return false;
+        } catch (final IOException | RuntimeException e) {
+            if (e instanceof CancellationException) {
+                throw (CancellationException) e;
+            }
+            if(builder.errorListener != null) {
+                imageView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        builder.errorListener.onError(e);
+                    }
+                });
+            }
+            fail();
+            notifyCropFinished(imageView, false);
             return false;
         }
+        final Bitmap croppedImage = decoded;
 
-        if (croppedImage != null) {
+        if (!builder.previewKeptOnSave) {
             final CountDownLatch croppedImageLatch = new CountDownLatch(1);
             imageView.post(new Runnable() {
                 @Override
                 public void run() {
                     CropImageView imageView = builder.imageView.get();
+                    if(isReleased()) {
+                        croppedImageLatch.countDown();
+                        return;
+                    }
                     if(imageView == null) {
                         croppedImageLatch.countDown();
-                        error = true;
+                        fail();
                         return;
                     }
 
-                    imageView.setImageRotateBitmapResetBase(new RotateBitmap(croppedImage, exifRotation), true);
+                    imageView.setImageRotateBitmapResetBase(new RotateBitmap(croppedImage, exifRotation, exifFlipped), true);
+                    croppedImageShown = true;
                     imageView.center(true, true);
-                    imageView.getHighlightViews().clear();
+                    imageView.clearHighlightViews();
                     croppedImageLatch.countDown();
                 }
             });
@@ -202,6 +511,7 @@ public class CropController {
             try {
                 croppedImageLatch.await();
             } catch (final InterruptedException e) {
+                task.checkCancelled();
                 if(builder.errorListener != null) {
                     imageView.post(new Runnable() {
                         @Override
@@ -213,36 +523,93 @@ public class CropController {
             }
         }
 
-        saveImage(croppedImage);
-        saving.set(false);
-        imageView.setSaving(false);
+        return saveImage(croppedImage, request, task);
+    }
 
-        return true;
+    // The crop rect is in source pixels, in the orientation the preview is shown in
+    private CropRequest newCropRequest(Rect cropRect) {
+        CropRequest.Builder request = new CropRequest.Builder(builder.source, cropRect, builder.output)
+                .compression(builder.compressFormat, builder.compressionQuality)
+                .withRotation(exifRotation, exifFlipped);
+        if (builder.maxSizeWidth > 0 && builder.maxSizeHeight > 0) {
+            request.withMaxSize(builder.maxSizeWidth, builder.maxSizeHeight);
+        }
+        if (builder.stripedSaveDecoders > 0) {
+            request.withStripedSave(builder.stripedSaveDecoders);
+        }
+        for (Rendition rendition : builder.renditions) {
+            request.withRendition(rendition);
+        }
+        return request.build();
     }
 
     public boolean hasError() {
-        return error;
+        return failed;
     }
 
     public boolean isSaving() {
-        return saving.get();
+        return state.get() == STATE_SAVING;
+    }
+
+    /**
+     * Saves the crop rect, zoom and pan, for a {@link Builder#withSavedInstanceState(Bundle)} to restore.
+     * Call this from {@link android.app.Activity#onSaveInstanceState(Bundle)}, on the main thread.
+     *
+     * <br/><br/>The decoded preview is kept in a process wide cache (which is trimmed when memory runs low),
+     * so a controller recreated for the same image usually shows it without decoding it again.
+     */
+    public void saveInstanceState(Bundle outState) {
+        CropImageView imageView = builder.imageView.get();
+        if(cropView == null || imageView == null || isReleased()) {
+            return;
+        }
+
+        RectF r = cropView.cropRect;
+        float scale = displayedScale;
+        outState.putFloatArray(STATE_CROP_RECT,
+                new float[] {r.left * scale, r.top * scale, r.right * scale, r.bottom * scale});
+
+        Matrix suppMatrix = new Matrix();
+        imageView.getSuppMatrix(suppMatrix);
+        float[] values = new float[9];
+        suppMatrix.getValues(values);
+        outState.putFloatArray(STATE_SUPP_MATRIX, values);
     }
 
     /**
-     * Releases expensive resources. Do not use the object after calling this.
+     * Releases expensive resources. Do not use the object after calling this. This must be called on the main
+     * thread, and can be called more than once, or during a save (which then stops using the source before it
+     * is closed).
      */
     public void release() {
-        if(released.getAndSet(true)) {
+        int previous = state.getAndSet(STATE_RELEASED);
+        if(previous == STATE_RELEASED) {
             return;
         }
 
         CropImageView imageView = builder.imageView.get();
         if(imageView != null) {
-            clearImageView(imageView);
-            imageView.getHighlightViews().clear();
+            // While loading, the preview is still being made, and is released by finishLoading()
+            if(previous != STATE_LOADING) {
+                clearImageView(imageView);
+            } else {
+                imageView.clear();
+            }
+            imageView.clearHighlightViews();
+        } else if(previous != STATE_LOADING && rotateBitmap != null) {
+            // The view is gone, so nothing else holds the preview
+            recycle(rotateBitmap.getBitmap());
+            rotateBitmap.setBitmap(null);
         }
 
-        if(builder != null) {
+        if(previous != STATE_LOADING) {
+            if (tileDecoder != null) {
+                tileDecoder.recycle();
+                tileDecoder = null;
+            }
+        }
+
+        if(previous != STATE_LOADING && previous != STATE_SAVING) {
             builder.release();
         }
     }
@@ -250,15 +617,18 @@ public class CropController {
     private void crop(CropImageView imageView) {
         imageView.post(new Runnable() {
             public void run() {
+                if(isReleased()) {
+                    return;
+                }
                 CropImageView imageView = builder.imageView.get();
-                if (imageView == null || rotateBitmap == null) {
-                    error = true;
+                if (imageView == null || displayed == null) {
+                    fail();
                     return;
                 }
 
                 HighlightView hv = new HighlightView(imageView);
-                final int width = rotateBitmap.getWidth();
-                final int height = rotateBitmap.getHeight();
+                final int width = displayed.getWidth();
+                final int height = displayed.getHeight();
 
                 Rect imageRect = new Rect(0, 0, width, height);
 
@@ -279,6 +649,15 @@ public class CropController {
                 int y = (height - cropHeight) / 2;
 
                 RectF cropRect = new RectF(x, y, x + cropWidth, y + cropHeight);
+                if (builder.savedCropRect != null) {
+                    // It was saved in source pixels, so it doesn't depend on the size of the preview
+                    RectF saved = builder.savedCropRect;
+                    float scale = 1F / displayedScale;
+                    cropRect.set(saved.left * scale, saved.top * scale, saved.right * scale, saved.bottom * scale);
+                    if (!cropRect.intersect(0, 0, width, height)) {
+                        cropRect.set(x, y, x + cropWidth, y + cropHeight);
+                    }
+                }
                 hv.setup(imageView.getUnrotatedMatrix(), imageRect, cropRect, builder.aspectX != 0 && builder.aspectY != 0);
                 imageView.add(hv);
 
@@ -291,8 +670,29 @@ public class CropController {
         });
     }
 
-    private Bitmap decodeRegionCrop(CropImageView imageView, Context context, Rect rect, int outWidth, int outHeight) {
-        // Release memory now
+    private boolean saveStriped(CropImageView imageView, CropRequest request, CropTask task) {
+        try {
+            engine.saveStriped(request, task);
+            return true;
+        } catch (final IOException | RuntimeException e) {
+            if (e instanceof CancellationException) {
+                throw (CancellationException) e;
+            }
+            if(builder.errorListener != null) {
+                imageView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        builder.errorListener.onError(e);
+                    }
+                });
+            }
+            fail();
+            return false;
+        }
+    }
+
+    // Release memory now
+    private void releasePreview(CropImageView imageView) {
         final CountDownLatch clearImageViewLatch = new CountDownLatch(1);
         imageView.post(new Runnable() {
             @Override
@@ -317,127 +717,74 @@ public class CropController {
                 });
             }
         }
-
-        InputStream is = null;
-        Bitmap croppedImage = null;
-        try {
-            is = context.getContentResolver().openInputStream(builder.input);
-            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(is, false);
-            final int width = decoder.getWidth();
-            final int height = decoder.getHeight();
-
-            if (exifRotation != 0) {
-                // Adjust crop area to account for image rotation
-                Matrix matrix = new Matrix();
-                matrix.setRotate(-exifRotation);
-
-                RectF adjusted = new RectF();
-                matrix.mapRect(adjusted, new RectF(rect));
-
-                // Adjust to account for origin at 0,0
-                adjusted.offset(adjusted.left < 0 ? width : 0, adjusted.top < 0 ? height : 0);
-                rect = new Rect((int) adjusted.left, (int) adjusted.top, (int) adjusted.right, (int) adjusted.bottom);
-            }
-
-            try {
-                croppedImage = decoder.decodeRegion(rect, new BitmapFactory.Options());
-                if (rect.width() > outWidth || rect.height() > outHeight) {
-                    Matrix matrix = new Matrix();
-                    matrix.postScale((float) outWidth / rect.width(), (float) outHeight / rect.height());
-                    croppedImage = Bitmap.createBitmap(croppedImage, 0, 0, croppedImage.getWidth(), croppedImage.getHeight(), matrix, true);
-                }
-            } catch (IllegalArgumentException e) {
-                // Rethrow with some extra information
-                throw new IllegalArgumentException("Rectangle " + rect + " is outside of the image ("
-                    + width + "," + height + "," + exifRotation + ")", e);
-            }
-
-        } catch (final Throwable e) {
-            if(builder.errorListener != null) {
-                imageView.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        builder.errorListener.onError(e);
-                    }
-                });
-            }
-            error = true;
-        } finally {
-            CropUtil.closeSilently(is);
-        }
-        return croppedImage;
     }
 
+    // The view hands what it shows to the Recycler, so the preview is only pooled here if it was never shown
     private void clearImageView(CropImageView imageView) {
+        Bitmap shown = imageView.getDisplayedBitmap();
         imageView.clear();
         if (rotateBitmap != null) {
-            rotateBitmap.recycle();
+            if (rotateBitmap.getBitmap() != shown) {
+                recycle(rotateBitmap.getBitmap());
+            }
+            rotateBitmap.setBitmap(null);
+        }
+    }
+
+    // Pools a preview Bitmap, unless the PreviewCache has it
+    private void recycle(Bitmap b) {
+        if (b != null && !previewCache.owns(b)) {
+            bitmapPool.put(b);
         }
-        System.gc();
     }
 
-    private void saveImage(Bitmap croppedImage) {
+    // Returns whether the crop was saved
+    private boolean saveImage(Bitmap croppedImage, CropRequest request, CropTask task) {
         CropImageView imageView = builder.imageView.get();
         if(imageView == null) {
-            error = true;
-            return;
+            // Nothing can show it any more
+            bitmapPool.put(croppedImage);
+            fail();
+            return false;
         }
 
-        if (croppedImage != null) {
-            final boolean success = saveOutput(croppedImage);
-            if(builder.finishedListener != null) {
-                imageView.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        if(success) {
-                            builder.finishedListener.onCropFinished(builder.output);
-                        }
-                        else {
-                            builder.finishedListener.onCropFailed();
-                        }
+        boolean success = saveOutput(croppedImage, request, task);
+        notifyCropFinished(imageView, success);
+        return success;
+    }
+
+    private void notifyCropFinished(CropImageView imageView, final boolean success) {
+        if(builder.finishedListener != null) {
+            imageView.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(success) {
+                        builder.finishedListener.onCropFinished(builder.output);
                     }
-                });
-            }
-        } else {
-            if(builder.finishedListener != null) {
-                imageView.post(new Runnable() {
-                    @Override
-                    public void run() {
+                    else {
                         builder.finishedListener.onCropFailed();
                     }
-                });
-            }
+                }
+            });
         }
     }
 
-    private boolean saveOutput(Bitmap croppedImage) {
+    private boolean saveOutput(Bitmap croppedImage, CropRequest request, CropTask task) {
         CropImageView imageView = builder.imageView.get();
         if(imageView == null) {
-            error = true;
-            return false;
-        }
-        Context context = imageView.getContext();
-        if(context == null) {
-            error = true;
+            bitmapPool.put(croppedImage);
+            fail();
             return false;
         }
 
-        OutputStream outputStream = null;
         try {
-            if (builder.output != null) {
-                outputStream = context.getContentResolver().openOutputStream(builder.output);
-                if (outputStream != null) {
-                    croppedImage.compress(builder.compressFormat, builder.compressionQuality, outputStream);
-                }
-
-                return true;
-            }
-            else {
-                error = true;
-                return false;
-            }
+            engine.encode(request, croppedImage, task);
+            return true;
         }
-        catch(final Throwable e) {
+        catch(final IOException | RuntimeException e) {
+            if (e instanceof CancellationException) {
+                throw (CancellationException) e;
+            }
             if(builder.errorListener != null) {
                 imageView.post(new Runnable() {
                     @Override
@@ -445,54 +792,68 @@ public class CropController {
                         builder.errorListener.onFatalError(e);
                     }
                 });
-                error = true;
+                fail();
             }
             return false;
         } finally {
-            CropUtil.closeSilently(outputStream);
-
-            final CountDownLatch imageViewClearLatch = new CountDownLatch(1);
-            final Bitmap b = croppedImage;
-            imageView.post(new Runnable() {
-                public void run() {
-                    CropImageView imageView = builder.imageView.get();
-                    if(imageView != null) {
-                        imageView.clear();
-                        b.recycle();
+            if (builder.previewKeptOnSave) {
+                // The cropped image was never shown
+                bitmapPool.put(croppedImage);
+            } else {
+                final CountDownLatch imageViewClearLatch = new CountDownLatch(1);
+                final Bitmap b = croppedImage;
+                imageView.post(new Runnable() {
+                    public void run() {
+                        // Once shown, the cropped image belongs to the view's Recycler, which already has it if
+                        // the view moved on (to a release(), say). Otherwise it is pooled here.
+                        CropImageView imageView = builder.imageView.get();
+                        if(!croppedImageShown || imageView == null) {
+                            bitmapPool.put(b);
+                        } else if(imageView.getDisplayedBitmap() == b) {
+                            imageView.clear();
+                        }
+                        imageViewClearLatch.countDown();
                     }
-                    imageViewClearLatch.countDown();
-                }
-            });
+                });
 
-            try {
-                imageViewClearLatch.await();
-            } catch (final InterruptedException e) {
-                if(builder.errorListener != null) {
-                    imageView.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            builder.errorListener.onError(e);
-                        }
-                    });
+                try {
+                    imageViewClearLatch.await();
+                } catch (final InterruptedException e) {
+                    if(builder.errorListener != null && !task.isCancelRequested()) {
+                        imageView.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                builder.errorListener.onError(e);
+                            }
+                        });
+                    }
                 }
             }
         }
     }
 
-    private int calculateBitmapSampleSize(Context context, Uri bitmapUri) throws IOException {
-        InputStream is = null;
+    private Bitmap decodePreview(int width, int height) throws IOException {
         BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
+        options.inSampleSize = sampleSize;
+        bitmapPool.prepareOptions(options, width, height);
+
         try {
-            is = context.getContentResolver().openInputStream(bitmapUri);
-            BitmapFactory.decodeStream(is, null, options); // Just get image size
-        } finally {
-            CropUtil.closeSilently(is);
+            return builder.source.decode(options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
         }
 
-        int maxSize = getMaxImageSize();
+        // The pooled Bitmap couldn't be reused, so decode into a new one
+        bitmapPool.put(options.inBitmap);
+        options.inBitmap = null;
+        return builder.source.decode(options);
+    }
+
+    private int calculateBitmapSampleSize(int width, int height, int maxSize) {
         int sampleSize = 1;
-        while (options.outHeight / sampleSize > maxSize || options.outWidth / sampleSize > maxSize) {
+        while (height / sampleSize > maxSize || width / sampleSize > maxSize) {
             sampleSize = sampleSize << 1;
         }
         return sampleSize;
@@ -538,6 +899,23 @@ public class CropController {
         public void onCropFailed();
     }
 
+    /**
+     * Provide {@link CropController.Builder} with an implementation of {@code OnCropProgressListener} to follow
+     * saves.
+     */
+    public interface OnCropProgressListener {
+      /**
+       * <b>This will always be called on the main thread</b>
+       *
+       * <br/><br/>Called as a save moves through its stages, and as it writes the output. Calls are
+       * coalesced, so a short stage may never be reported.
+       *
+       * @param stage One of the {@link CropTask} {@code STAGE_} constants
+       * @param bytesWritten How many bytes of the output have been written so far
+       */
+        public void onCropProgress(@CropTask.Stage int stage, long bytesWritten);
+    }
+
     /**
      * Provide {@link CropController.Builder} with an implementation of {@code OnErrorListener} to listen for errors
      * during the lifetime of the {@link CropController}.
@@ -569,7 +947,7 @@ public class CropController {
     }
 
     public static class Builder {
-        private Uri input;
+        private ImageSource source;
         private Uri output;
         private SoftReference<CropImageView> imageView;
         private Bitmap.CompressFormat compressFormat = Bitmap.CompressFormat.JPEG;
@@ -578,7 +956,16 @@ public class CropController {
         private int aspectY;
         private int maxSizeWidth;
         private int maxSizeHeight;
+        private boolean tiledPreview;
+        private boolean progressive;
+        private boolean previewKeptOnSave;
+        private RectF savedCropRect;
+        private Matrix savedSuppMatrix;
+        private int stripedSaveDecoders;
+        private final List<Rendition> renditions = new ArrayList<>();
         private OnCropFinishedListener finishedListener;
+        private OnCropProgressListener progressListener;
+        private Executor executor;
         private OnErrorListener errorListener;
 
         /**
@@ -592,25 +979,47 @@ public class CropController {
          * @throws java.lang.IllegalStateException if {@code imageView.getContext()} returns {@code null}
          */
         public Builder(CropImageView imageView, Uri input, Uri output) {
+            this(imageView, input == null ? null : ImageSources.fromUri(getContext(imageView), input), output);
+        }
+
+        /**
+         * Create a builder with an input image from any {@link ImageSource}. The source is closed when the
+         * {@link CropController} is released.
+         *
+         * @param imageView The Image View
+         * @param source Input image
+         * @param output Output image URI
+         *
+         * @throws java.lang.IllegalArgumentException if {@code imageView}, {@code source}, or {@code output} is {@code null}
+         * @throws java.lang.IllegalStateException if {@code imageView.getContext()} returns {@code null}
+         */
+        public Builder(CropImageView imageView, ImageSource source, Uri output) {
             if(imageView == null) {
                 throw new IllegalArgumentException("CropImageView cannot be null");
             }
             if(imageView.getContext() == null) {
                 throw new IllegalStateException("Is CropImageView attached to a Context?");
             }
+            final BitmapPool bitmapPool = BitmapPool.get(imageView.getContext());
+            final PreviewCache previewCache = PreviewCache.get(imageView.getContext());
             imageView.setRecycler(new ImageViewTouchBase.Recycler() {
                 @Override
                 public void recycle(Bitmap b) {
-                    b.recycle();
-                    System.gc();
+                    // Cached previews may still be shown by another view
+                    if(!previewCache.owns(b)) {
+                        bitmapPool.put(b);
+                    }
                 }
             });
             this.imageView = new SoftReference<>(imageView);
 
-            if(input == null) {
-                throw new IllegalArgumentException("Input URI cannot be null");
+            if(source == null) {
+                throw new IllegalArgumentException("Input cannot be null");
+            }
+            this.source = source;
+            if(source instanceof CachingImageSource) {
+                ((CachingImageSource) source).setMetadataIndex(MetadataIndex.get(imageView.getContext()));
             }
-            this.input = input;
 
             if(output == null) {
                 throw new IllegalArgumentException("Output URI cannot be null");
@@ -679,6 +1088,123 @@ public class CropController {
             return this;
         }
 
+        /**
+         * Show a small preview, and decode full resolution tiles of the visible area as the user zooms in.
+         * This keeps memory usage bounded for very large images while still allowing them to be cropped
+         * at full detail.
+         */
+        public Builder withTiledPreview() {
+            tiledPreview = true;
+            return this;
+        }
+
+        /**
+         * Show the image's embedded EXIF thumbnail, or a very coarse decode of it, as soon as possible, and
+         * replace it with the preview once that is decoded. The crop rect can be adjusted in the meantime, and
+         * stays where it is on the image when the preview replaces the thumbnail.
+         */
+        public Builder withProgressiveLoading() {
+            progressive = true;
+            return this;
+        }
+
+        /**
+         * Keep showing the preview while saving, instead of releasing it to make room for the crop and showing
+         * the cropped image. The save then never waits on the main thread, but the preview and the crop are in
+         * memory at the same time.
+         */
+        public Builder withPreviewKeptOnSave() {
+            previewKeptOnSave = true;
+            return this;
+        }
+
+        /**
+         * Restore the crop rect, zoom and pan saved by {@link CropController#saveInstanceState(Bundle)}, if
+         * {@code savedInstanceState} has them.
+         *
+         * @param savedInstanceState The Bundle passed to {@code onCreate()}, which may be {@code null}
+         */
+        public Builder withSavedInstanceState(Bundle savedInstanceState) {
+            if(savedInstanceState == null) {
+                return this;
+            }
+            float[] cropRect = savedInstanceState.getFloatArray(STATE_CROP_RECT);
+            if(cropRect != null && cropRect.length == 4) {
+                savedCropRect = new RectF(cropRect[0], cropRect[1], cropRect[2], cropRect[3]);
+            }
+            float[] suppMatrix = savedInstanceState.getFloatArray(STATE_SUPP_MATRIX);
+            if(suppMatrix != null && suppMatrix.length == 9) {
+                savedSuppMatrix = new Matrix();
+                savedSuppMatrix.setValues(suppMatrix);
+            }
+            return this;
+        }
+
+        /**
+         * Also save the crop as {@code rendition}, at its own size and format. The output and every rendition
+         * are scaled down from one decode of the crop, and encoded in parallel; the {@link OnCropFinishedListener}
+         * is called once they are all saved.
+         *
+         * @throws java.lang.IllegalArgumentException if {@code rendition} is {@code null}
+         */
+        public Builder withRendition(Rendition rendition) {
+            if(rendition == null) {
+                throw new IllegalArgumentException("Rendition cannot be null");
+            }
+            renditions.add(rendition);
+            return this;
+        }
+
+        /**
+         * Save large crops by decoding and encoding them in horizontal bands, so that the whole output
+         * never has to be in memory. Small crops, and formats other than JPEG and PNG, are saved normally,
+         * and so are crops with renditions, which are scaled from the whole decoded crop.
+         */
+        public Builder withStripedSave() {
+            return withStripedSave(1);
+        }
+
+        /**
+         * Save large crops by decoding and encoding them in horizontal bands, so that the whole output
+         * never has to be in memory. Small crops, and formats other than JPEG and PNG, are saved normally,
+         * and so are crops with renditions, which are scaled from the whole decoded crop.
+         *
+         * @param decoders The number of bands to decode in parallel (each one needs its own region decoder)
+         *
+         * @throws java.lang.IllegalArgumentException if {@code decoders <= 0}
+         */
+        public Builder withStripedSave(int decoders) {
+            if(decoders <= 0) {
+                throw new IllegalArgumentException(String.format("Illegal value for decoders - %d", decoders));
+            }
+            stripedSaveDecoders = decoders;
+            return this;
+        }
+
+        /**
+         * Set the {@link Executor} that {@link CropController#saveAsync()} saves on. It must not run tasks on
+         * the main thread. By default a shared background pool is used.
+         *
+         * @throws java.lang.IllegalArgumentException if {@code executor} is {@code null}
+         */
+        public Builder withExecutor(Executor executor) {
+            if(executor == null) {
+                throw new IllegalArgumentException("Executor cannot be null");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Set the {@link OnCropProgressListener}
+         *
+         * @param progressListener The OnCropProgressListener
+         */
+        public Builder withCropProgressListener(OnCropProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
         /**
          * Set the {@link OnCropFinishedListener}
          *
@@ -700,7 +1226,8 @@ public class CropController {
         }
 
         /**
-         * Build the {@link CropController}
+         * Build the {@link CropController}. This returns immediately, and the image is loaded on a background thread.
+         * Errors that happen while loading are reported to the {@link OnErrorListener}.
          *
          * @return the {@code CropController}
          */
@@ -708,7 +1235,18 @@ public class CropController {
             return new CropController(this);
         }
 
+        private static Context getContext(CropImageView imageView) {
+            if(imageView == null) {
+                throw new IllegalArgumentException("CropImageView cannot be null");
+            }
+            if(imageView.getContext() == null) {
+                throw new IllegalStateException("Is CropImageView attached to a Context?");
+            }
+            return imageView.getContext();
+        }
+
         private void release() {
+            CropUtil.closeSilently(source);
             if(imageView != null) {
                 imageView.clear();
                 imageView = null;
@@ -0,0 +1,428 @@
+package com.isapp.android.crop;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Matrix;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Looper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Crops images without a {@link CropImageView}, so that a crop can be applied (or applied again) in a
+ * background job after the UI is gone. {@link CropController} saves its crops through one of these.
+ *
+ * <br/><br/>Crops run on the calling thread, which must not be the main thread. An engine can be used by
+ * any number of threads at once.
+ */
+public class CropEngine {
+    // Crops with fewer output pixels than this are saved in one piece even if striped saving is enabled
+    private static final int STRIPED_SAVE_MIN_PIXELS = 2048 * 2048;
+    private static final int STRIPED_SAVE_BUFFER_SIZE = 64 * 1024;
+
+    // Encodes renditions while the next smaller one is scaled
+    private static final ExecutorService ENCODER = Executors.newCachedThreadPool();
+
+    private final ContentResolver contentResolver;
+    private final BitmapPool bitmapPool;
+    private final MetadataIndex metadataIndex;
+
+    /**
+     * @param context Any Context (the application Context is kept)
+     *
+     * @throws java.lang.IllegalArgumentException if {@code context} is {@code null}
+     */
+    public CropEngine(Context context) {
+        if(context == null) {
+            throw new IllegalArgumentException("Context cannot be null");
+        }
+        contentResolver = context.getApplicationContext().getContentResolver();
+        bitmapPool = BitmapPool.get(context);
+        metadataIndex = MetadataIndex.get(context);
+    }
+
+    /**
+     * Crops the request's image and saves it to its output, blocking until the output is written.
+     *
+     * @throws java.io.IOException if the image could not be read, or the output could not be written
+     * @throws java.lang.IllegalArgumentException if the crop rect is outside of the image
+     * @throws java.lang.IllegalStateException if this is called on the main thread
+     */
+    public void crop(CropRequest request) throws IOException {
+        if(Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("You can't call CropEngine.crop() on the main thread");
+        }
+        if(request.source instanceof CachingImageSource) {
+            ((CachingImageSource) request.source).setMetadataIndex(metadataIndex);
+        }
+        crop(request, new CropTask(null, null));
+    }
+
+    // Crops with task's progress and cancellation. A cancelled crop removes what it wrote.
+    void crop(CropRequest request, CropTask task) throws IOException {
+        try {
+            if (isStriped(request)) {
+                saveStriped(request, task);
+            } else {
+                Bitmap croppedImage = decode(request, task);
+                try {
+                    encode(request, croppedImage, task);
+                } finally {
+                    bitmapPool.put(croppedImage);
+                }
+            }
+        } catch (CancellationException e) {
+            discardOutput(request.output);
+            for (Rendition rendition : request.renditions) {
+                discardOutput(rendition.output);
+            }
+            throw e;
+        }
+    }
+
+    // Whether the request is saved in bands by saveStriped(), rather than by decode() and encode()
+    boolean isStriped(CropRequest request) {
+        Point size = getOutputSize(request);
+        return request.stripedSaveDecoders > 0 && request.renditions.isEmpty()
+                && (long) size.x * size.y >= STRIPED_SAVE_MIN_PIXELS
+                && StripedCropWriter.isSupported(request.compressFormat);
+    }
+
+    /*
+     * Decodes the crop, scaled down to the size of its biggest output, in the orientation of the source (which
+     * is what encode() saves). The caller owns the Bitmap, and can put it in the BitmapPool.
+     */
+    Bitmap decode(CropRequest request, CropTask task) throws IOException {
+        Point size = getDecodeSize(request);
+        BitmapRegionDecoder decoder = null;
+        Bitmap croppedImage = null;
+        try {
+            task.setStage(CropTask.STAGE_DECODE);
+            decoder = request.source.newRegionDecoder();
+            final int width = decoder.getWidth();
+            final int height = decoder.getHeight();
+
+            int rotation = getRotation(request);
+            Rect rect = toSourceRect(request.cropRect, width, height, rotation, isFlipped(request));
+            // The output size is in the rotated orientation, but we decode in the source orientation
+            int outWidth = rotation % 180 == 0 ? size.x : size.y;
+            int outHeight = rotation % 180 == 0 ? size.y : size.x;
+
+            try {
+                // Let the decoder do most of the downscaling so the full resolution region is never in memory
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = CropUtil.calculateInSampleSize(rect.width(), rect.height(), outWidth, outHeight);
+                options.inMutable = true;
+                if (options.inSampleSize == 1) {
+                    // The region decoder keeps the size of inBitmap, so only reuse one that is exactly right
+                    options.inBitmap = bitmapPool.getExact(rect.width(), rect.height(), Bitmap.Config.ARGB_8888);
+                }
+                croppedImage = decoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                // Rethrow with some extra information
+                throw new IllegalArgumentException("Rectangle " + rect + " is outside of the image ("
+                    + width + "," + height + "," + rotation + ")", e);
+            }
+            if (croppedImage == null) {
+                throw new IOException("Could not decode " + rect);
+            }
+            // The decode itself can't be interrupted, so this is the first chance to stop
+            task.checkCancelled();
+            if (croppedImage.getWidth() > outWidth || croppedImage.getHeight() > outHeight) {
+                task.setStage(CropTask.STAGE_SCALE);
+                croppedImage = bitmapPool.scale(croppedImage, outWidth, outHeight);
+            }
+            return croppedImage;
+        } catch (CancellationException e) {
+            bitmapPool.put(croppedImage);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            task.checkCancelled();
+            throw e;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    // Encodes a crop from decode() to the request's output, and to its renditions
+    void encode(CropRequest request, Bitmap croppedImage, CropTask task) throws IOException {
+        task.setStage(CropTask.STAGE_ENCODE);
+        if (request.renditions.isEmpty()) {
+            encode(croppedImage, request.output, request.compressFormat, request.compressionQuality, task);
+        } else {
+            encodeRenditions(request, croppedImage, task);
+        }
+        task.setStage(CropTask.STAGE_WRITE);
+    }
+
+    /*
+     * Scales the crop down to each output in turn, biggest first, from the output before it rather than
+     * from the full crop, and encodes each output in parallel as soon as it is scaled.
+     */
+    private void encodeRenditions(CropRequest request, final Bitmap croppedImage, final CropTask task)
+            throws IOException {
+        int rotation = getRotation(request);
+        // The request's own output goes first, and is sized by the request
+        List<Rendition> outputs = new ArrayList<>(request.renditions.size() + 1);
+        outputs.add(new Rendition(Math.max(1, request.maxSizeWidth), Math.max(1, request.maxSizeHeight),
+                request.compressFormat, request.compressionQuality, request.output));
+        outputs.addAll(request.renditions);
+        final List<Point> sizes = new ArrayList<>(outputs.size());
+        for (int i = 0; i < outputs.size(); i++) {
+            Rendition rendition = outputs.get(i);
+            Point size = i == 0 ? getOutputSize(request)
+                    : getOutputSize(request.cropRect, rendition.maxWidth, rendition.maxHeight);
+            // Outputs are in the orientation of the crop rect, and the crop is in the orientation of the source
+            sizes.add(rotation % 180 == 0 ? size : new Point(size.y, size.x));
+        }
+        List<Integer> order = new ArrayList<>(outputs.size());
+        for (int i = 0; i < outputs.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = (long) sizes.get(lhs).x * sizes.get(lhs).y;
+                long r = (long) sizes.get(rhs).x * sizes.get(rhs).y;
+                return l > r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        // Every scaled Bitmap stays until all of the encodes are done, since one may still be scaled from
+        List<Bitmap> scaled = new ArrayList<>();
+        List<Future<Void>> encodes = new ArrayList<>(outputs.size());
+        try {
+            Bitmap previous = croppedImage;
+            for (int i : order) {
+                task.checkCancelled();
+                Point size = sizes.get(i);
+                // Never scale up; a crop smaller than an output is saved at its own size
+                final Bitmap b;
+                if (previous.getWidth() > size.x || previous.getHeight() > size.y) {
+                    b = bitmapPool.scaledCopy(previous, Math.min(size.x, previous.getWidth()),
+                            Math.min(size.y, previous.getHeight()));
+                    scaled.add(b);
+                } else {
+                    b = previous;
+                }
+                previous = b;
+
+                final Rendition rendition = outputs.get(i);
+                encodes.add(ENCODER.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        encode(b, rendition.output, rendition.compressFormat, rendition.compressionQuality, task);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> encode : encodes) {
+                try {
+                    encode.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException(cause);
+                } catch (InterruptedException e) {
+                    task.checkCancelled();
+                    throw new InterruptedIOException("Interrupted while saving the renditions");
+                }
+            }
+        } finally {
+            // The scaled Bitmaps can only be pooled once nothing encodes them. An encode that is still running
+            // fails at its next write if the crop was cancelled.
+            boolean finished = true;
+            for (Future<Void> encode : encodes) {
+                try {
+                    encode.get();
+                } catch (ExecutionException e) {
+                    // Already reported
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    finished = false;
+                    break;
+                }
+            }
+            if (finished) {
+                for (Bitmap b : scaled) {
+                    bitmapPool.put(b);
+                }
+            }
+        }
+    }
+
+    private void encode(Bitmap b, Uri output, Bitmap.CompressFormat compressFormat, int compressionQuality,
+                        CropTask task) throws IOException {
+        OutputStream outputStream = null;
+        try {
+            outputStream = openOutput(output);
+            boolean encoded = b.compress(compressFormat, compressionQuality, task.wrap(outputStream));
+            // A cancelled write only makes compress() return false
+            task.checkCancelled();
+            if (!encoded) {
+                throw new IOException("Could not encode the crop as " + compressFormat);
+            }
+            outputStream.close();
+        } catch (IOException | RuntimeException e) {
+            task.checkCancelled();
+            throw e;
+        } finally {
+            CropUtil.closeSilently(outputStream);
+        }
+    }
+
+    // Decodes the crop in bands and streams them to the output, so the whole output is never in memory
+    void saveStriped(CropRequest request, CropTask task) throws IOException {
+        Point size = getOutputSize(request);
+        List<BitmapRegionDecoder> decoders = new ArrayList<>();
+        OutputStream outputStream = null;
+        StripeEncoder encoder = null;
+        try {
+            task.setStage(CropTask.STAGE_DECODE);
+            // Each band is decoded by one decoder at a time, so parallel bands need their own decoders
+            for (int i = 0; i < request.stripedSaveDecoders; i++) {
+                decoders.add(request.source.newRegionDecoder());
+            }
+
+            int rotation = getRotation(request);
+            Rect rect = toSourceRect(request.cropRect, decoders.get(0).getWidth(), decoders.get(0).getHeight(),
+                    rotation, isFlipped(request));
+            int outWidth = rotation % 180 == 0 ? size.x : size.y;
+            int outHeight = rotation % 180 == 0 ? size.y : size.x;
+
+            outputStream = openOutput(request.output);
+            encoder = StripedCropWriter.newEncoder(request.compressFormat, request.compressionQuality,
+                    new BufferedOutputStream(task.wrap(outputStream), STRIPED_SAVE_BUFFER_SIZE), outWidth, outHeight);
+            task.setStage(CropTask.STAGE_ENCODE);
+            new StripedCropWriter(decoders, bitmapPool, rect, outWidth, outHeight).write(encoder);
+            task.setStage(CropTask.STAGE_WRITE);
+            outputStream.close();
+        } catch (InterruptedException e) {
+            // Cancelling interrupts the wait for the next band
+            task.checkCancelled();
+            throw new InterruptedIOException("Interrupted while saving the crop");
+        } catch (IOException | RuntimeException e) {
+            // Or fails the next write
+            task.checkCancelled();
+            throw e;
+        } finally {
+            for (BitmapRegionDecoder decoder : decoders) {
+                decoder.recycle();
+            }
+            if (encoder != null) {
+                encoder.abort();
+            }
+            CropUtil.closeSilently(outputStream);
+        }
+    }
+
+    // Removes what a cancelled crop wrote. Content Uris are truncated instead, since they belong to the caller.
+    void discardOutput(Uri output) {
+        if (ContentResolver.SCHEME_FILE.equals(output.getScheme()) && output.getPath() != null) {
+            new File(output.getPath()).delete();
+            return;
+        }
+        try {
+            CropUtil.closeSilently(contentResolver.openOutputStream(output, "wt"));
+        } catch (IOException | RuntimeException e) {
+            // Nothing more can be done
+        }
+    }
+
+    private OutputStream openOutput(Uri output) throws IOException {
+        OutputStream outputStream = contentResolver.openOutputStream(output);
+        if (outputStream == null) {
+            throw new IOException("Could not open " + output);
+        }
+        return outputStream;
+    }
+
+    // The size of the output, in the orientation of the crop rect
+    static Point getOutputSize(CropRequest request) {
+        return getOutputSize(request.cropRect, request.maxSizeWidth, request.maxSizeHeight);
+    }
+
+    // The size the crop is decoded at, which is the size of its biggest output
+    static Point getDecodeSize(CropRequest request) {
+        Point size = getOutputSize(request);
+        for (Rendition rendition : request.renditions) {
+            Point renditionSize = getOutputSize(request.cropRect, rendition.maxWidth, rendition.maxHeight);
+            if ((long) renditionSize.x * renditionSize.y > (long) size.x * size.y) {
+                size = renditionSize;
+            }
+        }
+        return size;
+    }
+
+    private static Point getOutputSize(Rect cropRect, int maxSizeWidth, int maxSizeHeight) {
+        int width = cropRect.width();
+        int height = cropRect.height();
+        if (maxSizeWidth > 0 && maxSizeHeight > 0 && (width > maxSizeWidth || height > maxSizeHeight)) {
+            float ratio = (float) width / (float) height;
+            if ((float) maxSizeWidth / (float) maxSizeHeight > ratio) {
+                return new Point((int) ((float) maxSizeHeight * ratio + .5f), maxSizeHeight);
+            } else {
+                return new Point(maxSizeWidth, (int) ((float) maxSizeWidth / ratio + .5f));
+            }
+        }
+        return new Point(width, height);
+    }
+
+    private static int getRotation(CropRequest request) throws IOException {
+        return request.orientationSet ? request.rotation : CropUtil.getRotation(request.source.getExifOrientation());
+    }
+
+    private static boolean isFlipped(CropRequest request) throws IOException {
+        return request.orientationSet ? request.flipped : CropUtil.isFlipped(request.source.getExifOrientation());
+    }
+
+    // Maps a rect in the displayed orientation to the source image, which is width x height
+    private static Rect toSourceRect(Rect rect, int width, int height, int rotation, boolean flipped) {
+        if (rotation == 0 && !flipped) {
+            return rect;
+        }
+
+        // Build the source to display mapping, and undo it
+        Matrix matrix = new Matrix();
+        matrix.setRotate(rotation);
+        RectF bounds = new RectF(0, 0, width, height);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        if (flipped) {
+            matrix.postScale(-1F, 1F, bounds.width() / 2F, 0F);
+        }
+        matrix.invert(matrix);
+
+        RectF adjusted = new RectF(rect);
+        matrix.mapRect(adjusted);
+        return new Rect(Math.round(adjusted.left), Math.round(adjusted.top),
+                Math.round(adjusted.right), Math.round(adjusted.bottom));
+    }
+}
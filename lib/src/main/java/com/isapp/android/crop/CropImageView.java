@@ -2,11 +2,17 @@ package com.isapp.android.crop;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.os.SystemClock;
 import android.support.annotation.IntDef;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.ViewConfiguration;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -32,6 +38,12 @@ public class CropImageView extends ImageViewTouchBase {
     private static final int DEFAULT_HIGHLIGHT_COLOR = 0xFF33B5E5;
     private static final int DEFAULT_OUTSIDE_COLOR = 0x88252525;
 
+    private static final float CENTER_DURATION_MS = 300F;
+
+    // How far ahead drags are predicted, and the most they can be moved by a prediction
+    private static final float PREDICTION_HORIZON_MS = 16F;
+    private static final float MAX_PREDICTION_PX = 48F;
+
     private ArrayList<HighlightView> highlightViews = new ArrayList<>();
     private HighlightView motionHighlightView;
 
@@ -42,11 +54,50 @@ public class CropImageView extends ImageViewTouchBase {
     @HandleMode private int handleMode = HANDLE_MODE_CHANGING;
     @Shape private int shape = SHAPE_SQUARE;
 
+    // The last position that was applied to motionHighlightView, including any prediction
     private float lastX;
     private float lastY;
     private int motionEdge;
-
-    private boolean saving = false;
+    private boolean panning;
+
+    private int minFlingVelocity;
+    private int maxFlingVelocity;
+
+    // Moves and overlay changes are coalesced into one update per frame. A single callback does
+    // both, so that at most one Choreographer callback record is ever in use, and none has to be
+    // allocated once the first one is back in the Choreographer's pool.
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            framePending = false;
+            applyPendingMotion(predictionEnabled);
+            flushOverlayInvalidation();
+        }
+    };
+    private boolean framePending;
+    private boolean hasPendingMotion;
+    private float pendingX;
+    private float pendingY;
+    private VelocityTracker velocityTracker;
+    private boolean predictionEnabled = false;
+
+    // Overlay changes are collected into one dirty rectangle, which is invalidated once per frame
+    private final Rect overlayDirtyRect = new Rect();
+
+    // Input to draw latency, from the oldest input sample applied in a frame to that frame's draw.
+    // Cleared when the samples are dropped, or applied without changing anything, so that no later
+    // draw is charged for them.
+    private long pendingInputTime = -1;
+    private final Rect motionDrawRect = new Rect();
+    private long inputLatencyTotal;
+    private int inputLatencyCount;
+    private long maxInputLatency;
+
+    // Written by the thread saving the crop
+    private volatile boolean saving = false;
+
+    private final TileRenderer tileRenderer = new TileRenderer(this);
 
     @SuppressWarnings("UnusedDeclaration")
     public CropImageView(Context context) {
@@ -70,6 +121,10 @@ public class CropImageView extends ImageViewTouchBase {
     }
 
     private void init(AttributeSet attrs) {
+        ViewConfiguration configuration = ViewConfiguration.get(getContext());
+        minFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        maxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+
         if (attrs != null) {
             TypedArray a = getContext().obtainStyledAttributes(attrs, R.styleable.CropImageView);
 
@@ -142,8 +197,8 @@ public class CropImageView extends ImageViewTouchBase {
 
     public void setShowThirds(boolean showThirds) {
         this.showThirds = showThirds;
-        for(HighlightView hv : highlightViews) {
-            hv.invalidate();
+        for (HighlightView hv : highlightViews) {
+            hv.invalidateOverlay();
         }
     }
 
@@ -153,8 +208,8 @@ public class CropImageView extends ImageViewTouchBase {
 
     public void setHighlightColor(int highlightColor) {
         this.highlightColor = highlightColor;
-        for(HighlightView hv : highlightViews) {
-          hv.invalidate();
+        for (HighlightView hv : highlightViews) {
+            hv.invalidateOverlay();
         }
     }
 
@@ -164,9 +219,8 @@ public class CropImageView extends ImageViewTouchBase {
 
     public void setOutsideColor(int outsideColor) {
         this.outsideColor = outsideColor;
-        for(HighlightView hv : highlightViews) {
-          hv.invalidate();
-        }
+        // The outside color covers the whole view
+        invalidate();
     }
 
     @HandleMode public int getHandleMode() {
@@ -175,8 +229,8 @@ public class CropImageView extends ImageViewTouchBase {
 
     public void setHandleMode(@HandleMode int handleMode) {
         this.handleMode = handleMode;
-        for(HighlightView hv : highlightViews) {
-          hv.invalidate();
+        for (HighlightView hv : highlightViews) {
+            hv.invalidateOverlay();
         }
     }
 
@@ -186,9 +240,73 @@ public class CropImageView extends ImageViewTouchBase {
 
     public void setShape(@Shape int shape) {
         this.shape = shape;
-        for(HighlightView hv : highlightViews) {
-          hv.invalidate();
+        for (HighlightView hv : highlightViews) {
+            hv.invalidateOverlay();
+        }
+    }
+
+    public boolean isDragPredictionEnabled() {
+        return predictionEnabled;
+    }
+
+    // When enabled, drags are extrapolated a frame ahead from the touch velocity, which hides
+    // some of the touch latency at the cost of occasionally overshooting
+    public void setDragPredictionEnabled(boolean predictionEnabled) {
+        this.predictionEnabled = predictionEnabled;
+    }
+
+    /**
+     * @return the average time in milliseconds between a touch sample and the frame that drew it
+     */
+    public float getAverageInputLatencyMs() {
+        return inputLatencyCount == 0 ? 0F : (float) inputLatencyTotal / inputLatencyCount;
+    }
+
+    /**
+     * @return the longest time in milliseconds between a touch sample and the frame that drew it
+     */
+    public long getMaxInputLatencyMs() {
+        return maxInputLatency;
+    }
+
+    public void resetInputLatencyStats() {
+        inputLatencyTotal = 0;
+        inputLatencyCount = 0;
+        maxInputLatency = 0;
+    }
+
+    // Draw full resolution tiles from decoder over the preview when zoomed in.
+    // The view takes ownership of decoder, and will recycle it when it is no longer needed.
+    void setTileSource(BitmapRegionDecoder decoder) {
+        if (decoder == null) {
+            tileRenderer.release();
+        } else {
+            tileRenderer.setSource(decoder, decoder.getWidth(), decoder.getHeight());
         }
+        maxZoom = calculateMaxZoom();
+        invalidate();
+    }
+
+    @Override
+    protected void onInteractingChanged(boolean interacting) {
+        tileRenderer.setPaused(interacting);
+    }
+
+    @Override
+    void clear() {
+        tileRenderer.release();
+        super.clear();
+    }
+
+    @Override
+    protected float calculateMaxZoom() {
+        float maxZoom = super.calculateMaxZoom();
+        Bitmap bitmap = bitmapDisplayed.getBitmap();
+        if (bitmap != null && tileRenderer.hasSource()) {
+            // Allow zooming in relative to the full image instead of the preview
+            maxZoom *= Math.max(1F, (float) tileRenderer.getImageWidth() / bitmap.getWidth());
+        }
+        return maxZoom;
     }
 
     void setSaving(boolean saving) {
@@ -199,29 +317,84 @@ public class CropImageView extends ImageViewTouchBase {
         return highlightViews;
     }
 
+    // Schedules dirty, in view coordinates, to be redrawn on the next frame
+    void invalidateOverlay(Rect dirty) {
+        overlayDirtyRect.union(dirty);
+        postFrame();
+    }
+
+    private void postFrame() {
+        if (!framePending) {
+            framePending = true;
+            choreographer.postFrameCallback(frameCallback);
+        }
+    }
+
+    private void flushOverlayInvalidation() {
+        if (!overlayDirtyRect.isEmpty()) {
+            invalidate(overlayDirtyRect);
+            overlayDirtyRect.setEmpty();
+        }
+    }
+
+    void clearHighlightViews() {
+        for (HighlightView hv : highlightViews) {
+            hv.release();
+        }
+        highlightViews.clear();
+        invalidate();
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         if (saving) {
             return false;
         }
 
-        switch (event.getAction()) {
+        if (velocityTracker == null) {
+            velocityTracker = VelocityTracker.obtain();
+        }
+        // Historical samples are included, so the velocity follows the touch panel's full rate
+        velocityTracker.addMovement(event);
+
+        // Pinches zoom the image
+        onScaleGestureEvent(event);
+
+        switch (event.getActionMasked()) {
         case MotionEvent.ACTION_DOWN:
+            // A new touch takes over from any running animation
+            cancelAnimation();
+            cancelPendingMotion();
+            lastX = event.getX();
+            lastY = event.getY();
             for (HighlightView hv : highlightViews) {
                 int edge = hv.getHit(event.getX(), event.getY());
                 if (edge != HighlightView.GROW_NONE) {
                     motionEdge = edge;
                     motionHighlightView = hv;
-                    lastX = event.getX();
-                    lastY = event.getY();
                     motionHighlightView.setMode((edge == HighlightView.MOVE)
                             ? HighlightView.MODIFY_MODE_MOVE
                             : HighlightView.MODIFY_MODE_GROW);
                     break;
                 }
             }
+            // Dragging outside of the crop rectangle pans the image
+            panning = motionHighlightView == null;
+            break;
+        case MotionEvent.ACTION_POINTER_DOWN:
+            // A second finger starts a pinch, which takes over from a single finger drag
+            cancelMotion();
             break;
         case MotionEvent.ACTION_UP:
+            if (motionHighlightView != null || panning) {
+                // Catch up with the exact final position, without any prediction
+                cancelPendingMotion();
+                pendingX = event.getX();
+                pendingY = event.getY();
+                pendingInputTime = event.getEventTime();
+                hasPendingMotion = true;
+                applyPendingMotion(false);
+            }
             if (motionHighlightView != null) {
                 centerBasedOnHighlightView(motionHighlightView);
                 motionHighlightView.setMode(HighlightView.MODIFY_MODE_NONE);
@@ -229,36 +402,116 @@ public class CropImageView extends ImageViewTouchBase {
             motionHighlightView = null;
             break;
         case MotionEvent.ACTION_MOVE:
-            if (motionHighlightView != null) {
-                motionHighlightView.handleMotion(motionEdge, event.getX()
-                        - lastX, event.getY() - lastY);
-                lastX = event.getX();
-                lastY = event.getY();
-                ensureVisible(motionHighlightView);
+            if ((motionHighlightView != null || panning) && !isScaling()) {
+                // The samples in this event are applied on the next frame, together with any
+                // others that arrive before it
+                pendingX = event.getX();
+                pendingY = event.getY();
+                if (!hasPendingMotion) {
+                    pendingInputTime = event.getHistorySize() > 0
+                            ? event.getHistoricalEventTime(0)
+                            : event.getEventTime();
+                    hasPendingMotion = true;
+                }
+                postFrame();
             }
             break;
+        case MotionEvent.ACTION_CANCEL:
+            cancelMotion();
+            break;
         }
 
-        switch (event.getAction()) {
+        switch (event.getActionMasked()) {
         case MotionEvent.ACTION_UP:
             center(true, true);
-            break;
-        case MotionEvent.ACTION_MOVE:
-            // if we're not zoomed then there's no point in even allowing
-            // the user to move the image around. This call to center puts
-            // it back to the normalized location (with false meaning don't
-            // animate).
-            if (getScale() == 1F) {
-                center(true, true);
+            if (panning) {
+                velocityTracker.computeCurrentVelocity(1000, maxFlingVelocity);
+                float velocityX = velocityTracker.getXVelocity();
+                float velocityY = velocityTracker.getYVelocity();
+                if (Math.max(Math.abs(velocityX), Math.abs(velocityY)) > minFlingVelocity) {
+                    fling(velocityX, velocityY);
+                }
+                panning = false;
             }
+            // Fall through
+        case MotionEvent.ACTION_CANCEL:
+            velocityTracker.recycle();
+            velocityTracker = null;
             break;
         }
 
         return true;
     }
 
+    // Drops the current single finger drag, if any
+    private void cancelMotion() {
+        cancelPendingMotion();
+        if (motionHighlightView != null) {
+            motionHighlightView.setMode(HighlightView.MODIFY_MODE_NONE);
+        }
+        motionHighlightView = null;
+        panning = false;
+    }
+
+    // Applies the latest touch position to motionHighlightView or the pan, once per frame
+    private void applyPendingMotion(boolean predict) {
+        if (!hasPendingMotion || (motionHighlightView == null && !panning)) {
+            return;
+        }
+        hasPendingMotion = false;
+
+        float x = pendingX;
+        float y = pendingY;
+        if (predict && velocityTracker != null) {
+            velocityTracker.computeCurrentVelocity(1000);
+            x += clampPrediction(velocityTracker.getXVelocity() * PREDICTION_HORIZON_MS / 1000F);
+            y += clampPrediction(velocityTracker.getYVelocity() * PREDICTION_HORIZON_MS / 1000F);
+        }
+
+        // Deltas are taken from the last applied (possibly predicted) position, so that
+        // prediction errors are corrected on the next frame instead of accumulating
+        boolean changed;
+        if (motionHighlightView != null) {
+            motionDrawRect.set(motionHighlightView.drawRect);
+            motionHighlightView.handleMotion(motionEdge, x - lastX, y - lastY);
+            ensureVisible(motionHighlightView);
+            changed = !motionDrawRect.equals(motionHighlightView.drawRect);
+        } else {
+            // Clamped, so the image never has to be re-centered while panning
+            changed = panClamped(x - lastX, y - lastY);
+        }
+        lastX = x;
+        lastY = y;
+        if (!changed) {
+            // Nothing will be drawn for these samples
+            pendingInputTime = -1;
+        }
+    }
+
+    // Runs the frame callback for changes that are waiting for the next frame, without waiting for it
+    void runPendingFrame() {
+        if (framePending) {
+            choreographer.removeFrameCallback(frameCallback);
+            frameCallback.doFrame(System.nanoTime());
+        }
+    }
+
+    private static float clampPrediction(float distance) {
+        return Math.max(-MAX_PREDICTION_PX, Math.min(MAX_PREDICTION_PX, distance));
+    }
+
+    // The frame callback stays posted, since it may also have overlay changes to flush
+    private void cancelPendingMotion() {
+        hasPendingMotion = false;
+        pendingInputTime = -1;
+    }
+
     // Pan the displayed image to make sure the cropping rectangle is visible.
     private void ensureVisible(HighlightView hv) {
+        ensureVisible(hv, 0F);
+    }
+
+    private void ensureVisible(HighlightView hv, float durationMs) {
         Rect r = hv.drawRect;
 
         int panDeltaX1 = Math.max(0, getLeft() - r.left);
@@ -271,7 +524,11 @@ public class CropImageView extends ImageViewTouchBase {
         int panDeltaY = panDeltaY1 != 0 ? panDeltaY1 : panDeltaY2;
 
         if (panDeltaX != 0 || panDeltaY != 0) {
-            panBy(panDeltaX, panDeltaY);
+            if (durationMs > 0F) {
+                panBy(panDeltaX, panDeltaY, durationMs);
+            } else {
+                panBy(panDeltaX, panDeltaY);
+            }
         }
     }
 
@@ -296,20 +553,49 @@ public class CropImageView extends ImageViewTouchBase {
         if ((Math.abs(zoom - getScale()) / zoom) > .1) {
             float[] coordinates = new float[] { hv.cropRect.centerX(), hv.cropRect.centerY() };
             getUnrotatedMatrix().mapPoints(coordinates);
-            zoomTo(zoom, coordinates[0], coordinates[1], 300F);
+            zoomTo(zoom, coordinates[0], coordinates[1], CENTER_DURATION_MS);
+            ensureVisible(hv);
+        } else {
+            ensureVisible(hv, CENTER_DURATION_MS);
         }
-
-        ensureVisible(hv);
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
+        if (pendingInputTime >= 0 && !hasPendingMotion) {
+            long latency = SystemClock.uptimeMillis() - pendingInputTime;
+            inputLatencyTotal += latency;
+            inputLatencyCount++;
+            maxInputLatency = Math.max(maxInputLatency, latency);
+            pendingInputTime = -1;
+        }
+
         super.onDraw(canvas);
+        Bitmap bitmap = bitmapDisplayed.getBitmap();
+        if (bitmap != null) {
+            tileRenderer.draw(canvas, getImageViewMatrix(), bitmap.getWidth());
+        }
         for (HighlightView mHighlightView : highlightViews) {
             mHighlightView.draw(canvas);
         }
     }
 
+    /*
+     * Shows another resolution of the displayed image, where one pixel of the displayed image is scale
+     * pixels of the new one. The zoom, the pan and the crop rects stay where they are on screen.
+     */
+    void replaceImageRotateBitmap(RotateBitmap bitmap, float scale) {
+        setImageRotateBitmapResetBase(bitmap, false);
+        Rect imageRect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        for (HighlightView hv : highlightViews) {
+            hv.rescale(scale, imageRect);
+            // Before the first layout, onLayout() does this once the image is set
+            hv.matrix.set(getUnrotatedMatrix());
+            hv.invalidate();
+        }
+        invalidate();
+    }
+
     void add(HighlightView hv) {
         highlightViews.add(hv);
         invalidate();
@@ -0,0 +1,214 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything {@link CropEngine} needs to crop an image: the source, the crop rect, and how to save the crop.
+ * Requests are immutable, so they can be kept (in a background job, say) and run later.
+ */
+public final class CropRequest {
+    private static final int FULL_QUALITY = 100;
+
+    final ImageSource source;
+    final Rect cropRect;
+    final Uri output;
+    final Bitmap.CompressFormat compressFormat;
+    final int compressionQuality;
+    final int maxSizeWidth;
+    final int maxSizeHeight;
+    final boolean orientationSet;
+    final int rotation;
+    final boolean flipped;
+    final int stripedSaveDecoders;
+    final List<Rendition> renditions;
+
+    private CropRequest(Builder builder) {
+        source = builder.source;
+        cropRect = new Rect(builder.cropRect);
+        output = builder.output;
+        compressFormat = builder.compressFormat;
+        compressionQuality = builder.compressionQuality;
+        maxSizeWidth = builder.maxSizeWidth;
+        maxSizeHeight = builder.maxSizeHeight;
+        orientationSet = builder.orientationSet;
+        rotation = builder.rotation;
+        flipped = builder.flipped;
+        stripedSaveDecoders = builder.stripedSaveDecoders;
+        renditions = Collections.unmodifiableList(new ArrayList<>(builder.renditions));
+    }
+
+    public ImageSource getSource() {
+        return source;
+    }
+
+    /**
+     * @return a copy of the crop rect, in pixels of the image as it is displayed (after any rotation)
+     */
+    public Rect getCropRect() {
+        return new Rect(cropRect);
+    }
+
+    public Uri getOutput() {
+        return output;
+    }
+
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+
+    public static class Builder {
+        private final ImageSource source;
+        private final Rect cropRect;
+        private final Uri output;
+        private Bitmap.CompressFormat compressFormat = Bitmap.CompressFormat.JPEG;
+        private int compressionQuality = FULL_QUALITY;
+        private int maxSizeWidth;
+        private int maxSizeHeight;
+        private boolean orientationSet;
+        private int rotation;
+        private boolean flipped;
+        private int stripedSaveDecoders;
+        private final List<Rendition> renditions = new ArrayList<>();
+
+        /**
+         * Create a builder for a crop of {@code source}. The source is not closed by the {@link CropEngine}.
+         *
+         * @param source Input image
+         * @param cropRect The crop rect, in pixels of the full size image as it is displayed, which is after
+         *                 its EXIF rotation unless {@link #withRotation(int, boolean)} says otherwise
+         * @param output Output image URI
+         *
+         * @throws java.lang.IllegalArgumentException if {@code source}, {@code cropRect}, or {@code output} is
+         * {@code null}, or if {@code cropRect} is empty
+         */
+        public Builder(ImageSource source, Rect cropRect, Uri output) {
+            if(source == null) {
+                throw new IllegalArgumentException("Input cannot be null");
+            }
+            if(cropRect == null || cropRect.isEmpty()) {
+                throw new IllegalArgumentException("Crop rect cannot be null or empty");
+            }
+            if(output == null) {
+                throw new IllegalArgumentException("Output URI cannot be null");
+            }
+            this.source = source;
+            this.cropRect = new Rect(cropRect);
+            this.output = output;
+        }
+
+        /**
+         * Sets the type of compression the output will be saved as.
+         * The output will be saved at full quality
+         *
+         * @param compressFormat The compression format to use
+         *
+         * @throws java.lang.IllegalArgumentException if {@code compressFormat} is {@code null}
+         */
+        public Builder compression(Bitmap.CompressFormat compressFormat) {
+            return compression(compressFormat, FULL_QUALITY);
+        }
+
+        /**
+         * Sets the type of compression the output will be saved as
+         * and sets the compression quality that will be used
+         *
+         * @param compressFormat The compression format to use
+         * @param compressionQuality The compression quality to use (must be 1-100)
+         *
+         * @throws java.lang.IllegalArgumentException if {@code compressFormat} is {@code null} or
+         * {@code compressionQuality <= 0 || compressionQuality > 100}
+         */
+        public Builder compression(Bitmap.CompressFormat compressFormat, int compressionQuality) {
+            if(compressFormat == null) {
+                throw new IllegalArgumentException("CompressFormat cannot be null");
+            }
+            if(compressionQuality <=0 || compressionQuality > 100) {
+                throw new IllegalArgumentException(String.format("Illegal value for compressionQuality - %d", compressionQuality));
+            }
+            this.compressFormat = compressFormat;
+            this.compressionQuality = compressionQuality;
+            return this;
+        }
+
+        /**
+         * Set maximum crop size. Bigger crops are scaled down to fit, keeping their aspect ratio.
+         *
+         * @param width Max width
+         * @param height Max height
+         */
+        public Builder withMaxSize(int width, int height) {
+            maxSizeWidth = width;
+            maxSizeHeight = height;
+            return this;
+        }
+
+        /**
+         * Set how the crop rect is oriented relative to the image's pixels, instead of using the image's EXIF
+         * orientation.
+         *
+         * @param degrees The clockwise rotation of the image as it is displayed (0, 90, 180 or 270)
+         * @param flipped Whether it is then mirrored horizontally
+         *
+         * @throws java.lang.IllegalArgumentException if {@code degrees} is not a multiple of 90
+         */
+        public Builder withRotation(int degrees, boolean flipped) {
+            if(degrees % 90 != 0) {
+                throw new IllegalArgumentException(String.format("Illegal value for degrees - %d", degrees));
+            }
+            orientationSet = true;
+            rotation = (degrees % 360 + 360) % 360;
+            this.flipped = flipped;
+            return this;
+        }
+
+        /**
+         * Also save the crop as {@code rendition}. The renditions are scaled down from the same decode of the
+         * crop as the output, and encoded in parallel.
+         *
+         * @throws java.lang.IllegalArgumentException if {@code rendition} is {@code null}
+         */
+        public Builder withRendition(Rendition rendition) {
+            if(rendition == null) {
+                throw new IllegalArgumentException("Rendition cannot be null");
+            }
+            renditions.add(rendition);
+            return this;
+        }
+
+        /**
+         * Save large crops by decoding and encoding them in horizontal bands, so that the whole output
+         * never has to be in memory. Small crops, and formats other than JPEG and PNG, are saved normally,
+         * and so are crops with renditions, which are scaled from the whole decoded crop.
+         */
+        public Builder withStripedSave() {
+            return withStripedSave(1);
+        }
+
+        /**
+         * Save large crops by decoding and encoding them in horizontal bands, so that the whole output
+         * never has to be in memory. Small crops, and formats other than JPEG and PNG, are saved normally,
+         * and so are crops with renditions, which are scaled from the whole decoded crop.
+         *
+         * @param decoders The number of bands to decode in parallel (each one needs its own region decoder)
+         *
+         * @throws java.lang.IllegalArgumentException if {@code decoders <= 0}
+         */
+        public Builder withStripedSave(int decoders) {
+            if(decoders <= 0) {
+                throw new IllegalArgumentException(String.format("Illegal value for decoders - %d", decoders));
+            }
+            stripedSaveDecoders = decoders;
+            return this;
+        }
+
+        public CropRequest build() {
+            return new CropRequest(this);
+        }
+    }
+}
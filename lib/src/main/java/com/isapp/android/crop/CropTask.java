@@ -0,0 +1,183 @@
+package com.isapp.android.crop;
+
+import android.os.Handler;
+import android.support.annotation.IntDef;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A crop being saved in the background, returned by {@link CropController#saveAsync()}. Its result is
+ * {@code true} if the crop was saved.
+ *
+ * <br/><br/>Cancelling it stops the save at the next band, or as soon as the encoder writes again, releases
+ * the region decoders, and removes whatever was already written to the output.
+ */
+public class CropTask implements Future<Boolean> {
+    @IntDef({STAGE_DECODE, STAGE_SCALE, STAGE_ENCODE, STAGE_WRITE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Stage {}
+
+    /**
+     * The crop is being decoded from the source image
+     */
+    public static final int STAGE_DECODE = 0;
+    /**
+     * The decoded crop is being scaled down to the maximum size
+     */
+    public static final int STAGE_SCALE = 1;
+    /**
+     * The crop is being encoded and written to the output. Striped saves decode, scale and encode
+     * bands at the same time, and spend most of their time in this stage.
+     */
+    public static final int STAGE_ENCODE = 2;
+    /**
+     * The output is being flushed and closed
+     */
+    public static final int STAGE_WRITE = 3;
+
+    // Bytes written between progress callbacks, so encoding doesn't flood the main thread
+    private static final long PROGRESS_INTERVAL_BYTES = 64 * 1024;
+
+    private final Handler mainHandler;
+    private final CropController.OnCropProgressListener progressListener;
+
+    private FutureTask<Boolean> future;
+    private volatile boolean cancelled;
+    private volatile int stage = STAGE_DECODE;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicBoolean progressPending = new AtomicBoolean();
+    private final AtomicLong lastReportedBytes = new AtomicLong();
+
+    private final Runnable progressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            progressPending.set(false);
+            if (!cancelled) {
+                progressListener.onCropProgress(stage, bytesWritten.get());
+            }
+        }
+    };
+
+    CropTask(Handler mainHandler, CropController.OnCropProgressListener progressListener) {
+        this.mainHandler = mainHandler;
+        this.progressListener = progressListener;
+    }
+
+    // Runs work on executor. A synchronous save() uses a task that is never started, just for its progress.
+    void start(Executor executor, Callable<Boolean> work) {
+        future = new FutureTask<>(work);
+        executor.execute(future);
+    }
+
+    /**
+     * @return the stage the save is in, one of the {@code STAGE_} constants
+     */
+    @Stage
+    public int getStage() {
+        return stage;
+    }
+
+    /**
+     * @return how many bytes of the output have been written so far
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        cancelled = true;
+        return future.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException, ExecutionException {
+        return future.get();
+    }
+
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(timeout, unit);
+    }
+
+    boolean isCancelRequested() {
+        return cancelled;
+    }
+
+    // Throws a CancellationException if the task was cancelled, for the save to unwind
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    void setStage(@Stage int stage) {
+        this.stage = stage;
+        postProgress();
+    }
+
+    // Counts the bytes written to out, and fails the next write after the task is cancelled
+    OutputStream wrap(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                checkWrite();
+                out.write(b);
+                onWritten(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                checkWrite();
+                out.write(b, off, len);
+                onWritten(len);
+            }
+
+            private void checkWrite() throws InterruptedIOException {
+                if (cancelled) {
+                    throw new InterruptedIOException("The crop was cancelled");
+                }
+            }
+        };
+    }
+
+    private void onWritten(long count) {
+        long total = bytesWritten.addAndGet(count);
+        // Renditions are written from several threads at once, so only the one that moves the mark posts
+        long reported = lastReportedBytes.get();
+        if (total - reported >= PROGRESS_INTERVAL_BYTES && lastReportedBytes.compareAndSet(reported, total)) {
+            postProgress();
+        }
+    }
+
+    private void postProgress() {
+        if (progressListener != null && progressPending.compareAndSet(false, true)) {
+            mainHandler.post(progressRunnable);
+        }
+    }
+}
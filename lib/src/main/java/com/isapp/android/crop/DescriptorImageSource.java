@@ -0,0 +1,156 @@
+package com.isapp.android.crop;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * An ImageSource backed by a seekable file descriptor, which is opened once.
+ *
+ * Decodes are fed the descriptor directly, so the region decoder gets random
+ * access to the file instead of buffering a copy of a stream. Streams read a
+ * memory mapping of the file, or positional reads if it can't be mapped.
+ */
+abstract class DescriptorImageSource extends CachingImageSource {
+    // Bigger files are read through the channel, to save address space
+    private static final long MAX_MAPPED_SIZE = 64 * 1024 * 1024;
+
+    // The descriptor's offset is shared by everything that uses it, so native decodes take turns
+    private final Object descriptorLock = new Object();
+
+    private boolean opened;
+    private FileInputStream input;
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+
+    /*
+     * Opens the file, or returns null if there is no file to open. Called at most once.
+     * The returned stream is passed to closeFile() when the source is closed.
+     */
+    protected abstract FileInputStream openFile() throws IOException;
+
+    protected void closeFile(FileInputStream input) {
+        CropUtil.closeSilently(input);
+    }
+
+    // Used when there is no seekable file
+    protected InputStream openFallbackStream() throws IOException {
+        throw new IOException("The image can't be opened");
+    }
+
+    // Returns false if there is no seekable file
+    private synchronized boolean ensureOpen() throws IOException {
+        if (!opened) {
+            opened = true;
+            FileInputStream input = openFile();
+            if (input == null) {
+                return false;
+            }
+            FileChannel channel = input.getChannel();
+            try {
+                // The image starts at the start of the file, and this fails for pipes
+                channel.position(0);
+            } catch (IOException e) {
+                closeFile(input);
+                return false;
+            }
+            this.input = input;
+            this.channel = channel;
+
+            long size = channel.size();
+            if (size > 0 && size <= MAX_MAPPED_SIZE) {
+                try {
+                    mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                } catch (IOException e) {
+                    // Positional reads still work
+                }
+            }
+        }
+        return channel != null;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        if (!ensureOpen()) {
+            return openFallbackStream();
+        }
+        if (mapping != null) {
+            return new ByteBufferInputStream(mapping.duplicate());
+        }
+        return new ChannelInputStream(channel);
+    }
+
+    @Override
+    public Bitmap decode(BitmapFactory.Options options) throws IOException {
+        if (!ensureOpen()) {
+            return super.decode(options);
+        }
+        synchronized (descriptorLock) {
+            channel.position(0);
+            return BitmapFactory.decodeFileDescriptor(input.getFD(), null, options);
+        }
+    }
+
+    @Override
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        if (!ensureOpen()) {
+            return super.newRegionDecoder();
+        }
+        synchronized (descriptorLock) {
+            channel.position(0);
+            return BitmapRegionDecoder.newInstance(input.getFD(), false);
+        }
+    }
+
+    // Identifies the open file by its inode, size and modification time, where fstat() is available
+    @Override
+    protected String getIdentity() throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || !ensureOpen()) {
+            return null;
+        }
+        return LollipopStat.getIdentity(input.getFD());
+    }
+
+    /*
+     * Kept in its own class, since Dalvik fails to verify any class that names ErrnoException, even in a
+     * catch block that never runs. Only loaded on Lollipop and up.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static class LollipopStat {
+        static String getIdentity(FileDescriptor fd) {
+            try {
+                StructStat stat = Os.fstat(fd);
+                return "inode:" + stat.st_dev + ":" + stat.st_ino + "|" + stat.st_size + "|" + stat.st_mtime;
+            } catch (ErrnoException e) {
+                return null;
+            }
+        }
+    }
+
+    static String getFileIdentity(File file) {
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (input != null) {
+            closeFile(input);
+        }
+        input = null;
+        channel = null;
+        mapping = null;
+    }
+}
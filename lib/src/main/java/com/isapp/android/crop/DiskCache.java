@@ -0,0 +1,199 @@
+package com.isapp.android.crop;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * A process wide cache of images that had to be copied to local storage, so that
+ * they can be decoded with random access and aren't copied again when they are reopened.
+ *
+ * Entries are files named after a hash of their key, so a key must change whenever
+ * the content does. The least recently used files are deleted when the cache goes over
+ * its size. Files that are deleted while they are open stay readable until they are closed.
+ */
+class DiskCache {
+    private static final String DIR_NAME = "crop-cache";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+    // Bytes moved per transfer while filling an entry
+    private static final long TRANSFER_SIZE = 256 * 1024;
+
+    private static DiskCache instance;
+
+    private final File dir;
+    // File name to size, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private long maxBytes;
+    private long currentBytes;
+    private boolean loaded;
+
+    DiskCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    static synchronized DiskCache get(Context context) {
+        if (instance == null) {
+            instance = new DiskCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME),
+                    DEFAULT_MAX_SIZE);
+        }
+        return instance;
+    }
+
+    synchronized void setMaxSize(long maxBytes) {
+        this.maxBytes = maxBytes;
+        load();
+        trimToSize(maxBytes, null);
+    }
+
+    synchronized long getSize() {
+        load();
+        return currentBytes;
+    }
+
+    // Returns the cached file for key, or null
+    synchronized File get(String key) {
+        load();
+        String name = CropUtil.hash(key);
+        if (entries.get(name) == null) {
+            return null;
+        }
+        File file = new File(dir, name);
+        if (!file.isFile()) {
+            remove(name);
+            return null;
+        }
+        // Keeps the order for the next process
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /*
+     * Copies the rest of is into the cache under key, and returns the cached file.
+     * is is not closed. The copy is done outside the lock, so entries can be read
+     * and other entries filled meanwhile.
+     */
+    File put(String key, InputStream is) throws IOException {
+        String name = CropUtil.hash(key);
+        File temp;
+        synchronized (this) {
+            load();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            temp = File.createTempFile(name, TEMP_SUFFIX, dir);
+        }
+
+        long size;
+        try {
+            size = copy(is, temp);
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+
+        synchronized (this) {
+            File file = new File(dir, name);
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not create " + file);
+            }
+            Long previous = entries.put(name, size);
+            if (previous != null) {
+                currentBytes -= previous;
+            }
+            currentBytes += size;
+            trimToSize(maxBytes, name);
+            return file;
+        }
+    }
+
+    synchronized void clear() {
+        load();
+        trimToSize(0, null);
+    }
+
+    private static long copy(InputStream is, File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            ReadableByteChannel in = Channels.newChannel(is);
+            long position = 0;
+            long count;
+            while ((count = channel.transferFrom(in, position, TRANSFER_SIZE)) > 0) {
+                position += count;
+            }
+            return position;
+        } finally {
+            out.close();
+        }
+    }
+
+    // Reads the entries from the directory, oldest first, and drops copies that never finished
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        // lastModified() is read once per file, since the sort calls it repeatedly
+        final Map<File, Long> times = new HashMap<>();
+        for (File file : files) {
+            times.put(file, file.lastModified());
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = times.get(lhs);
+                long r = times.get(rhs);
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile()) {
+                entries.put(file.getName(), file.length());
+                currentBytes += file.length();
+            }
+        }
+        trimToSize(maxBytes, null);
+    }
+
+    // Deletes the least recently used entries, except keep, until the cache fits in size
+    private void trimToSize(long size, String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (currentBytes > size && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            currentBytes -= entry.getValue();
+            new File(dir, entry.getKey()).delete();
+        }
+    }
+
+    private void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            currentBytes -= size;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.isapp.android.crop;
+
+import android.media.ExifInterface;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Reads the orientation and the thumbnail location out of a JPEG's EXIF data.
+ *
+ * Only the markers before the EXIF (APP1) segment and the segment itself are
+ * read, so the image data is never touched, and nothing has to be a file.
+ */
+class ExifReader {
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    // One of the ExifInterface.ORIENTATION_ constants
+    int orientation = ExifInterface.ORIENTATION_UNDEFINED;
+
+    // Where the embedded JPEG thumbnail is in the file, if there is one
+    long thumbnailOffset = -1;
+    int thumbnailLength;
+
+    private final InputStream in;
+    private long position;
+
+    private ExifReader(InputStream in) {
+        this.in = in;
+    }
+
+    // What an earlier read found
+    ExifReader(int orientation, long thumbnailOffset, int thumbnailLength) {
+        this.in = null;
+        this.orientation = orientation;
+        this.thumbnailOffset = thumbnailOffset;
+        this.thumbnailLength = thumbnailLength;
+    }
+
+    // Reads from the start of a JPEG. Anything that isn't a JPEG, or has no EXIF data, has no orientation.
+    static ExifReader read(InputStream in) throws IOException {
+        ExifReader reader = new ExifReader(in);
+        try {
+            reader.readSegments();
+        } catch (EOFException e) {
+            // Truncated, so use whatever was found
+        }
+        return reader;
+    }
+
+    private void readSegments() throws IOException {
+        if (readByte() != 0xFF || readByte() != MARKER_SOI) {
+            return;
+        }
+        while (true) {
+            if (readByte() != 0xFF) {
+                return;
+            }
+            int marker;
+            do {
+                // Markers may be padded with any number of 0xFF bytes
+                marker = readByte();
+            } while (marker == 0xFF);
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return;
+            }
+
+            int length = (readByte() << 8 | readByte()) - 2;
+            if (length < 0) {
+                return;
+            }
+            if (marker == MARKER_APP1 && length > EXIF_HEADER.length) {
+                long start = position;
+                byte[] segment = new byte[length];
+                readFully(segment);
+                if (startsWith(segment, EXIF_HEADER)) {
+                    parseTiff(segment, EXIF_HEADER.length, start + EXIF_HEADER.length);
+                    return;
+                }
+                // Some other APP1 segment, like XMP
+            } else {
+                skipFully(length);
+            }
+        }
+    }
+
+    // tiffOffset is where the TIFF header starts in the file, which IFD offsets are relative to
+    private void parseTiff(byte[] b, int start, long tiffOffset) {
+        Tiff tiff = new Tiff(b, start);
+        if (!tiff.isValid()) {
+            return;
+        }
+
+        int ifd0 = tiff.readInt(4);
+        int count = tiff.readShort(ifd0);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd0 + 2 + i * IFD_ENTRY_SIZE;
+            if (tiff.readShort(entry) == TAG_ORIENTATION && tiff.readShort(entry + 2) == TYPE_SHORT) {
+                int value = tiff.readShort(entry + 8);
+                if (value >= ExifInterface.ORIENTATION_NORMAL && value <= ExifInterface.ORIENTATION_ROTATE_270) {
+                    orientation = value;
+                }
+            }
+        }
+
+        // IFD1 describes the thumbnail
+        int ifd1 = tiff.readInt(ifd0 + 2 + count * IFD_ENTRY_SIZE);
+        if (ifd1 <= 0) {
+            return;
+        }
+        int offset = -1;
+        int length = 0;
+        count = tiff.readShort(ifd1);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd1 + 2 + i * IFD_ENTRY_SIZE;
+            int tag = tiff.readShort(entry);
+            int type = tiff.readShort(entry + 2);
+            int value = type == TYPE_LONG ? tiff.readInt(entry + 8) : tiff.readShort(entry + 8);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                offset = value;
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                length = value;
+            }
+        }
+        if (offset > 0 && length > 0) {
+            thumbnailOffset = tiffOffset + offset;
+            thumbnailLength = length;
+        }
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        position++;
+        return b;
+    }
+
+    private void readFully(byte[] b) throws IOException {
+        int offset = 0;
+        while (offset < b.length) {
+            int read = in.read(b, offset, b.length - offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+        position += b.length;
+    }
+
+    private void skipFully(long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                // Some streams can't skip, so read instead
+                readByte();
+                position--;
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        position += n;
+    }
+
+    private static boolean startsWith(byte[] b, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Bounds checked reads from a TIFF structure in either byte order; out of range reads return 0
+    private static class Tiff {
+        private final byte[] b;
+        private final int start;
+        private final boolean littleEndian;
+
+        Tiff(byte[] b, int start) {
+            this.b = b;
+            this.start = start;
+            littleEndian = b.length > start + 1 && b[start] == 'I' && b[start + 1] == 'I';
+        }
+
+        boolean isValid() {
+            boolean bigEndian = b.length > start + 1 && b[start] == 'M' && b[start + 1] == 'M';
+            return (littleEndian || bigEndian) && readShort(2) == 42;
+        }
+
+        int readShort(int offset) {
+            int i = start + offset;
+            if (offset < 0 || i + 2 > b.length) {
+                return 0;
+            }
+            int b0 = b[i] & 0xFF;
+            int b1 = b[i + 1] & 0xFF;
+            return littleEndian ? (b1 << 8 | b0) : (b0 << 8 | b1);
+        }
+
+        int readInt(int offset) {
+            int i = start + offset;
+            if (offset < 0 || i + 4 > b.length) {
+                return 0;
+            }
+            int value = 0;
+            for (int j = 0; j < 4; j++) {
+                int shift = littleEndian ? j * 8 : (3 - j) * 8;
+                value |= (b[i + j] & 0xFF) << shift;
+            }
+            return value;
+        }
+    }
+}
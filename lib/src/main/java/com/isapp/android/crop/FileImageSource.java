@@ -0,0 +1,43 @@
+package com.isapp.android.crop;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/*
+ * An ImageSource for a file or an open FileDescriptor.
+ */
+class FileImageSource extends DescriptorImageSource {
+    private final File file;
+    private final FileDescriptor fd;
+
+    FileImageSource(File file) {
+        this.file = file;
+        this.fd = null;
+    }
+
+    // The caller keeps ownership of fd, which is not closed by close()
+    FileImageSource(FileDescriptor fd) {
+        this.file = null;
+        this.fd = fd;
+    }
+
+    @Override
+    protected FileInputStream openFile() throws IOException {
+        return file != null ? new FileInputStream(file) : new FileInputStream(fd);
+    }
+
+    @Override
+    protected String getIdentity() throws IOException {
+        return file != null ? getFileIdentity(file) : super.getIdentity();
+    }
+
+    @Override
+    protected void closeFile(FileInputStream input) {
+        // Closing a stream opened on a FileDescriptor closes the descriptor, which belongs to the caller
+        if (file != null) {
+            super.closeFile(input);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.isapp.android.crop;
+
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+import android.view.animation.Interpolator;
+
+/*
+ * Runs one animation at a time on the display's frame clock, so that it is
+ * updated exactly once per frame, in step with vsync. Frames that are skipped
+ * while an animation is running are counted as dropped.
+ *
+ * Must only be used on the main thread.
+ */
+class FrameAnimator implements Choreographer.FrameCallback {
+    private static final float DEFAULT_REFRESH_RATE = 60F;
+
+    interface Listener {
+        // fraction is the interpolated progress of the animation, from 0 to 1
+        void onUpdate(float fraction);
+    }
+
+    private final View view;
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    private Listener listener;
+    private Interpolator interpolator;
+    private long startNanos;
+    private long durationNanos;
+    private long lastFrameNanos;
+    private boolean running;
+
+    private int droppedFrames;
+
+    FrameAnimator(View view) {
+        this.view = view;
+    }
+
+    // Cancels any running animation and starts a new one
+    void start(long durationMs, Interpolator interpolator, Listener listener) {
+        cancel();
+
+        this.listener = listener;
+        this.interpolator = interpolator;
+        // Frame times are in the System.nanoTime() time base
+        startNanos = System.nanoTime();
+        lastFrameNanos = startNanos;
+        durationNanos = Math.max(1, durationMs * 1000000L);
+        running = true;
+        choreographer.postFrameCallback(this);
+    }
+
+    // Stops the animation where it is
+    void cancel() {
+        if (running) {
+            choreographer.removeFrameCallback(this);
+            running = false;
+            listener = null;
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int getDroppedFrameCount() {
+        return droppedFrames;
+    }
+
+    void resetDroppedFrameCount() {
+        droppedFrames = 0;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+
+        long frameIntervalNanos = getFrameIntervalNanos();
+        long elapsedSinceLastFrame = frameTimeNanos - lastFrameNanos;
+        if (elapsedSinceLastFrame > frameIntervalNanos * 3 / 2) {
+            droppedFrames += (int) (elapsedSinceLastFrame / frameIntervalNanos) - 1;
+        }
+        lastFrameNanos = frameTimeNanos;
+
+        float t = Math.min(1F, Math.max(0F, (float) (frameTimeNanos - startNanos) / durationNanos));
+        Listener listener = this.listener;
+        if (t < 1F) {
+            choreographer.postFrameCallback(this);
+        } else {
+            running = false;
+            this.listener = null;
+        }
+        listener.onUpdate(interpolator.getInterpolation(t));
+    }
+
+    private long getFrameIntervalNanos() {
+        Display display = view.getDisplay();
+        float refreshRate = display != null ? display.getRefreshRate() : DEFAULT_REFRESH_RATE;
+        if (refreshRate <= 0) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        return (long) (1000000000L / refreshRate);
+    }
+}
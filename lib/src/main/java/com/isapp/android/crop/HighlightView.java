@@ -16,9 +16,7 @@
 
 package com.isapp.android.crop;
 
-import android.annotation.SuppressLint;
 import android.graphics.*;
-import android.os.Build;
 import android.support.annotation.IntDef;
 
 import java.lang.annotation.Retention;
@@ -52,10 +50,30 @@ class HighlightView {
     private static final float OUTLINE_DP = 2f;
 
     RectF cropRect; // Image space
-    Rect drawRect; // Screen space
+    final Rect drawRect = new Rect(); // Screen space
     Matrix matrix;
     private RectF imageRect; // Image space
 
+    // Reused on every frame and touch event so that drawing and dragging don't allocate
+    private final Path path = new Path();
+    private final Rect pathRect = new Rect(); // The drawRect that path was built for
+    private int pathShape = -1;
+    private final Rect viewDrawingRect = new Rect();
+    private final Rect layoutRect = new Rect();
+    private final Rect invalRect = new Rect();
+    private final RectF mapRect = new RectF();
+    private final RectF growRect = new RectF();
+
+    // The outside of a circular crop area is drawn from an alpha mask of its bounding rectangle,
+    // tinted with outsidePaint. The mask is only redrawn when the rectangle's size changes,
+    // so moving the circle or panning the image just blits it. The mask's Bitmap has room for
+    // the whole view, and only its maskRect corner is used, so resizing doesn't allocate.
+    private Bitmap circleMask;
+    private final Rect maskRect = new Rect();
+    private final Canvas maskCanvas = new Canvas();
+    private final Paint maskPaint = new Paint();
+    private final Paint clearPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
     private final Paint outsidePaint = new Paint();
     private final Paint outlinePaint = new Paint();
     private final Paint handlePaint = new Paint();
@@ -82,7 +100,7 @@ class HighlightView {
         this.maintainAspectRatio = maintainAspectRatio;
 
         initialAspectRatio = this.cropRect.width() / this.cropRect.height();
-        drawRect = computeLayout();
+        computeLayout(drawRect);
 
         outsidePaint.setColor(containerImageView.getOutsideColor());
         outlinePaint.setStyle(Paint.Style.STROKE);
@@ -94,6 +112,8 @@ class HighlightView {
         handlePaint.setAntiAlias(true);
         handleRadius = dpToPx(HANDLE_RADIUS_DP);
 
+        clearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+
         modifyMode = MODIFY_MODE_NONE;
     }
 
@@ -102,34 +122,28 @@ class HighlightView {
     }
 
     protected void draw(Canvas canvas) {
-        canvas.save();
-        Path path = new Path();
         outlinePaint.setStrokeWidth(outlineWidth);
         if (!hasFocus()) {
             outlinePaint.setColor(Color.BLACK);
             canvas.drawRect(drawRect, outlinePaint);
         } else {
-            Rect viewDrawingRect = new Rect();
             containerImageView.getDrawingRect(viewDrawingRect);
 
-            if(containerImageView.getShape() == CropImageView.SHAPE_SQUARE) {
-                path.addRect(new RectF(drawRect), Path.Direction.CW);
-            }
-            else {
-                float radius = Math.min(drawRect.width(), drawRect.height()) / 2;
-                path.addCircle((float) (drawRect.left + drawRect.right) / 2, (float) (drawRect.top + drawRect.bottom) / 2, radius, Path.Direction.CW);
+            int shape = containerImageView.getShape();
+            if (shape != pathShape || !drawRect.equals(pathRect)) {
+                buildPath(shape);
             }
 
             outlinePaint.setColor(containerImageView.getHighlightColor());
+            handlePaint.setColor(containerImageView.getHighlightColor());
+            outsidePaint.setColor(containerImageView.getOutsideColor());
 
-            if (isClipPathSupported()) {
-                canvas.clipPath(path, Region.Op.DIFFERENCE);
-                canvas.drawRect(viewDrawingRect, outsidePaint);
-            } else {
-                drawOutsideFallback(canvas);
+            // Neither shape needs a clip path, which is slow in software rendering
+            drawOutsideRect(canvas);
+            if (shape == CropImageView.SHAPE_CIRCLE) {
+                drawCircleMask(canvas);
             }
 
-            canvas.restore();
             canvas.drawPath(path, outlinePaint);
 
             if (containerImageView.shouldShowThirds()) {
@@ -144,23 +158,73 @@ class HighlightView {
         }
     }
 
+    private void buildPath(int shape) {
+        path.reset();
+        if(shape == CropImageView.SHAPE_SQUARE) {
+            path.addRect(drawRect.left, drawRect.top, drawRect.right, drawRect.bottom, Path.Direction.CW);
+        }
+        else {
+            float radius = Math.min(drawRect.width(), drawRect.height()) / 2;
+            path.addCircle((float) (drawRect.left + drawRect.right) / 2, (float) (drawRect.top + drawRect.bottom) / 2, radius, Path.Direction.CW);
+        }
+        pathRect.set(drawRect);
+        pathShape = shape;
+    }
+
     /*
-     * Fall back to naive method for darkening outside crop area
+     * Darkens the view outside of drawRect
      */
-    private void drawOutsideFallback(Canvas canvas) {
-        canvas.drawRect(0, 0, canvas.getWidth(), drawRect.top, outsidePaint);
-        canvas.drawRect(0, drawRect.bottom, canvas.getWidth(), canvas.getHeight(), outsidePaint);
-        canvas.drawRect(0, drawRect.top, drawRect.left, drawRect.bottom, outsidePaint);
-        canvas.drawRect(drawRect.right, drawRect.top, canvas.getWidth(), drawRect.bottom, outsidePaint);
+    private void drawOutsideRect(Canvas canvas) {
+        Rect v = viewDrawingRect;
+        canvas.drawRect(v.left, v.top, v.right, drawRect.top, outsidePaint);
+        canvas.drawRect(v.left, drawRect.bottom, v.right, v.bottom, outsidePaint);
+        canvas.drawRect(v.left, drawRect.top, drawRect.left, drawRect.bottom, outsidePaint);
+        canvas.drawRect(drawRect.right, drawRect.top, v.right, drawRect.bottom, outsidePaint);
     }
 
     /*
-     * Clip path is broken, unreliable or not supported on:
-     * - JellyBean MR1
+     * Darkens the corners of drawRect outside of the circle
      */
-    @SuppressLint("NewApi")
-    private boolean isClipPathSupported() {
-      return Build.VERSION.SDK_INT != Build.VERSION_CODES.JELLY_BEAN_MR1;
+    private void drawCircleMask(Canvas canvas) {
+        int width = drawRect.width();
+        int height = drawRect.height();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (circleMask == null || circleMask.getWidth() < width || circleMask.getHeight() < height) {
+            allocateCircleMask(width, height);
+        }
+        if (maskRect.width() != width || maskRect.height() != height) {
+            buildCircleMask(width, height);
+        }
+        // ALPHA_8 bitmaps are drawn in the paint's color
+        canvas.drawBitmap(circleMask, maskRect, drawRect, outsidePaint);
+    }
+
+    private void allocateCircleMask(int width, int height) {
+        BitmapPool bitmapPool = BitmapPool.get(containerImageView.getContext());
+        bitmapPool.put(circleMask);
+        circleMask = bitmapPool.obtain(Math.max(width, viewDrawingRect.width()),
+                Math.max(height, viewDrawingRect.height()), Bitmap.Config.ALPHA_8);
+        maskCanvas.setBitmap(circleMask);
+        maskRect.setEmpty();
+    }
+
+    private void buildCircleMask(int width, int height) {
+        maskRect.set(0, 0, width, height);
+        // Only maskRect is drawn, so the rest of the Bitmap can hold anything
+        maskCanvas.drawRect(maskRect, maskPaint);
+        maskCanvas.drawCircle(width / 2F, height / 2F, Math.min(width, height) / 2F, clearPaint);
+    }
+
+    // Releases the cached overlay; the view may be drawn again afterwards
+    void release() {
+        if (circleMask != null) {
+            maskCanvas.setBitmap(null);
+            BitmapPool.get(containerImageView.getContext()).put(circleMask);
+            circleMask = null;
+            maskRect.setEmpty();
+        }
     }
 
     private void drawHandles(Canvas canvas) {
@@ -191,13 +255,17 @@ class HighlightView {
     public void setMode(@ModifyMode int mode) {
         if (mode != modifyMode) {
             modifyMode = mode;
-            containerImageView.invalidate();
+            // Draw cheaply for as long as the crop rectangle is being changed
+            containerImageView.setInteractionHeld(mode != MODIFY_MODE_NONE);
+            // Handles may have been shown or hidden
+            invalidateOverlay();
         }
     }
 
     // Determines which edges are hit by touching at (x, y)
     public int getHit(float x, float y) {
-        Rect r = computeLayout();
+        Rect r = layoutRect;
+        computeLayout(r);
         final float hysteresis = 20F;
         int retval = GROW_NONE;
 
@@ -232,7 +300,8 @@ class HighlightView {
     // Handles motion (dx, dy) in screen space.
     // The "edge" parameter specifies which edges the user is dragging.
     void handleMotion(int edge, float dx, float dy) {
-        Rect r = computeLayout();
+        Rect r = layoutRect;
+        computeLayout(r);
         if (edge == MOVE) {
             // Convert to image space before sending to moveBy()
             moveBy(dx * (cropRect.width() / r.width()),
@@ -256,7 +325,7 @@ class HighlightView {
 
     // Grows the cropping rectangle by (dx, dy) in image space
     void moveBy(float dx, float dy) {
-        Rect invalRect = new Rect(drawRect);
+        invalRect.set(drawRect);
 
         cropRect.offset(dx, dy);
 
@@ -269,10 +338,9 @@ class HighlightView {
                 Math.min(0, imageRect.right  - cropRect.right),
                 Math.min(0, imageRect.bottom - cropRect.bottom));
 
-        drawRect = computeLayout();
+        computeLayout(drawRect);
         invalRect.union(drawRect);
-        invalRect.inset(-(int) handleRadius, -(int) handleRadius);
-        containerImageView.invalidate(invalRect);
+        invalidateRect(invalRect);
     }
 
     // Grows the cropping rectangle by (dx, dy) in image space.
@@ -288,7 +356,8 @@ class HighlightView {
         // Don't let the cropping rectangle grow too fast.
         // Grow at most half of the difference between the image rectangle and
         // the cropping rectangle.
-        RectF r = new RectF(cropRect);
+        RectF r = growRect;
+        r.set(cropRect);
         if (dx > 0F && r.width() + 2 * dx > imageRect.width()) {
             dx = (imageRect.width() - r.width()) / 2F;
             if (maintainAspectRatio) {
@@ -328,9 +397,11 @@ class HighlightView {
             r.offset(0F, -(r.bottom - imageRect.bottom));
         }
 
+        invalRect.set(drawRect);
         cropRect.set(r);
-        drawRect = computeLayout();
-        containerImageView.invalidate();
+        computeLayout(drawRect);
+        invalRect.union(drawRect);
+        invalidateRect(invalRect);
     }
 
     // Returns the cropping rectangle in image space with specified scale
@@ -339,17 +410,43 @@ class HighlightView {
                 (int) (cropRect.right * scale), (int) (cropRect.bottom * scale));
     }
 
+    /*
+     * Moves the crop rect into the image space of the same image at another resolution, where the
+     * image is imageRect and one old pixel is scale new ones. The caller updates matrix to match.
+     */
+    void rescale(float scale, Rect imageRect) {
+        this.imageRect.set(imageRect);
+        cropRect.set(cropRect.left * scale, cropRect.top * scale, cropRect.right * scale, cropRect.bottom * scale);
+        // Rounding in the new size can leave the rect a fraction of a pixel outside the image
+        if (!cropRect.intersect(this.imageRect)) {
+            cropRect.set(this.imageRect);
+        }
+    }
+
     // Maps the cropping rectangle from image space to screen space
-    private Rect computeLayout() {
-        RectF r = new RectF(cropRect.left, cropRect.top,
-                            cropRect.right, cropRect.bottom);
+    private void computeLayout(Rect out) {
+        RectF r = mapRect;
+        r.set(cropRect);
         matrix.mapRect(r);
-        return new Rect(Math.round(r.left), Math.round(r.top),
-                        Math.round(r.right), Math.round(r.bottom));
+        out.set(Math.round(r.left), Math.round(r.top),
+                Math.round(r.right), Math.round(r.bottom));
     }
 
     public void invalidate() {
-        drawRect = computeLayout();
+        computeLayout(drawRect);
+    }
+
+    // Redraws everything drawn for this view, for when its style changes
+    void invalidateOverlay() {
+        invalRect.set(drawRect);
+        invalidateRect(invalRect);
+    }
+
+    // Invalidates r, which is changed, grown to include the handles and outline drawn around it
+    private void invalidateRect(Rect r) {
+        int outset = (int) Math.ceil(handleRadius + outlineWidth);
+        r.inset(-outset, -outset);
+        containerImageView.invalidateOverlay(r);
     }
 
     public boolean hasFocus() {
@@ -0,0 +1,57 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An image to crop. Use {@link ImageSources} to create one for a {@link android.net.Uri}, file,
+ * {@link java.io.FileDescriptor} or bytes in memory.
+ *
+ * <br/><br/>Implementations should open the underlying data once and serve every method from it,
+ * so that cropping an image doesn't have to open it repeatedly. All of the methods may be called
+ * on background threads, concurrently with each other.
+ */
+public interface ImageSource extends Closeable {
+    /**
+     * @return a new stream of the whole encoded image, which the caller must close
+     */
+    public InputStream openStream() throws IOException;
+
+    /**
+     * @return the width of the image, before any EXIF rotation
+     */
+    public int getWidth() throws IOException;
+
+    /**
+     * @return the height of the image, before any EXIF rotation
+     */
+    public int getHeight() throws IOException;
+
+    /**
+     * @return the MIME type of the image, or {@code null} if it is not known
+     */
+    public String getMimeType() throws IOException;
+
+    /**
+     * @return the EXIF orientation of the image, one of the {@link android.media.ExifInterface} {@code ORIENTATION_}
+     * constants ({@code ORIENTATION_UNDEFINED} if it has none)
+     */
+    public int getExifOrientation() throws IOException;
+
+    /**
+     * Decodes the image with {@code options}, like {@link BitmapFactory#decodeStream}.
+     *
+     * @return the decoded Bitmap, or {@code null} if it could not be decoded
+     */
+    public Bitmap decode(BitmapFactory.Options options) throws IOException;
+
+    /**
+     * @return a new region decoder for the image, which the caller must recycle
+     */
+    public BitmapRegionDecoder newRegionDecoder() throws IOException;
+}
@@ -0,0 +1,93 @@
+package com.isapp.android.crop;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+
+/**
+ * Creates {@link ImageSource}s. Nothing is opened or read until the source is first used.
+ */
+public final class ImageSources {
+    private ImageSources() {}
+
+    /**
+     * @param context Any Context (the application Context is kept)
+     * @param uri A {@code content} or {@code file} Uri
+     *
+     * @throws java.lang.IllegalArgumentException if {@code context} or {@code uri} is {@code null}
+     */
+    public static ImageSource fromUri(Context context, Uri uri) {
+        if(context == null || uri == null) {
+            throw new IllegalArgumentException("Context and Uri cannot be null");
+        }
+        return new UriImageSource(context, uri);
+    }
+
+    /**
+     * Sets how much storage the disk cache can use. Images from providers that can only stream them (cloud
+     * storage, mostly) are copied into the cache once, so they can be decoded with random access and aren't
+     * downloaded again when they are reopened. The least recently used images are deleted first.
+     *
+     * @param maxBytes The maximum size of the cache. The image copied last is kept even if it is bigger
+     *
+     * @throws java.lang.IllegalArgumentException if {@code context} is {@code null} or {@code maxBytes} is negative
+     */
+    public static void setDiskCacheSize(Context context, long maxBytes) {
+        if(context == null || maxBytes < 0) {
+            throw new IllegalArgumentException("Context cannot be null and maxBytes cannot be negative");
+        }
+        DiskCache.get(context).setMaxSize(maxBytes);
+    }
+
+    /**
+     * @throws java.lang.IllegalArgumentException if {@code file} is {@code null}
+     */
+    public static ImageSource fromFile(File file) {
+        if(file == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        return new FileImageSource(file);
+    }
+
+    /**
+     * The caller keeps ownership of {@code fd}; it is not closed when the source is closed, and must stay
+     * open for as long as the source is in use. It must be a seekable file (not a pipe or a socket) that
+     * holds only the image, and its offset is changed while the image is read.
+     *
+     * @throws java.lang.IllegalArgumentException if {@code fd} is {@code null}
+     */
+    public static ImageSource fromFileDescriptor(FileDescriptor fd) {
+        if(fd == null) {
+            throw new IllegalArgumentException("FileDescriptor cannot be null");
+        }
+        return new FileImageSource(fd);
+    }
+
+    /**
+     * The array is not copied, so it must not be changed while the source is in use.
+     *
+     * @throws java.lang.IllegalArgumentException if {@code data} is {@code null}
+     */
+    public static ImageSource fromBytes(byte[] data) {
+        if(data == null) {
+            throw new IllegalArgumentException("Data cannot be null");
+        }
+        return new ByteBufferImageSource(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * The image is the remaining bytes of {@code buffer}. They are not copied, so they must not be changed while
+     * the source is in use. The position and limit of {@code buffer} are not changed.
+     *
+     * @throws java.lang.IllegalArgumentException if {@code buffer} is {@code null}
+     */
+    public static ImageSource fromByteBuffer(ByteBuffer buffer) {
+        if(buffer == null) {
+            throw new IllegalArgumentException("Buffer cannot be null");
+        }
+        return new ByteBufferImageSource(buffer);
+    }
+}
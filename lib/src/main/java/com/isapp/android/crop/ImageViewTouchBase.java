@@ -16,15 +16,22 @@
 
 package com.isapp.android.crop;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
+import android.view.animation.LinearInterpolator;
 import android.widget.ImageView;
+import android.widget.OverScroller;
 
 /*
  * Modified from original in AOSP.
@@ -32,6 +39,10 @@ import android.widget.ImageView;
 abstract class ImageViewTouchBase extends ImageView {
 
     private static final float SCALE_RATE = 1.25F;
+    private static final float ZOOM_DURATION_MS = 300F;
+
+    // How long the image has to stay still before it is drawn at full quality again
+    private static final long SETTLE_DELAY_MS = 150;
 
     // This is the base transformation which is used to show the image
     // initially.  The current computation for this shows the image in
@@ -53,9 +64,27 @@ abstract class ImageViewTouchBase extends ImageView {
     // of the base matrix and the supplementary matrix.
     private final Matrix displayMatrix = new Matrix();
 
+    // These are the base matrix without the rotation, and its concatenation
+    // with the supplementary matrix.
+    private final Matrix unrotatedBaseMatrix = new Matrix();
+    private final Matrix unrotatedMatrix = new Matrix();
+
+    // The derived matrices above are cached, and only recomputed when these
+    // versions change. baseVersion changes with the bitmap and the view size,
+    // and matrixVersion changes with either the base or supplementary matrix.
+    private int baseVersion;
+    private int matrixVersion;
+    private int unrotatedBaseVersion = -1;
+    private int unrotatedVersion = -1;
+    private int displayVersion = -1;
+
     // Temporary buffer used for getting the values out of a matrix.
     private final float[] matrixValues = new float[9];
 
+    // Temporary buffers used for centering and panning, which happen on every touch event.
+    private final RectF centerRect = new RectF();
+    private final RectF panRect = new RectF();
+
     // The current bitmap being displayed.
     protected final RotateBitmap bitmapDisplayed = new RotateBitmap(null, 0);
 
@@ -66,7 +95,26 @@ abstract class ImageViewTouchBase extends ImageView {
 
     private Runnable onLayoutRunnable;
 
-    protected Handler handler = new Handler();
+    // Drives zoom and pan animations on the frame clock
+    protected final FrameAnimator animator = new FrameAnimator(this);
+    private final Interpolator interpolator = new DecelerateInterpolator();
+    private final Interpolator flingInterpolator = new LinearInterpolator();
+
+    private ScaleGestureDetector scaleDetector;
+    private OverScroller scroller;
+
+    // While the user is interacting, the image is drawn without filtering or dithering
+    private boolean interactionQualityEnabled = true;
+    private boolean interacting;
+    private boolean interactionHeld;
+    private final Runnable settleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!interactionHeld) {
+                setInteracting(false);
+            }
+        }
+    };
 
     // ImageViewTouchBase will pass a Bitmap to the Recycler if it has finished
     // its use of that Bitmap
@@ -98,6 +146,9 @@ abstract class ImageViewTouchBase extends ImageView {
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
+        if (thisWidth != right - left || thisHeight != bottom - top) {
+            invalidateBaseMatrix();
+        }
         thisWidth = right - left;
         thisHeight = bottom - top;
         Runnable r = onLayoutRunnable;
@@ -124,9 +175,9 @@ abstract class ImageViewTouchBase extends ImageView {
     public boolean onKeyUp(int keyCode, KeyEvent event) {
         if (keyCode == KeyEvent.KEYCODE_BACK && event.isTracking() && !event.isCanceled()) {
             if (getScale() > 1.0f) {
-                // If we're zoomed in, pressing Back jumps out to show the
+                // If we're zoomed in, pressing Back zooms out to show the
                 // entire image, otherwise Back returns the user to the gallery
-                zoomTo(1.0f);
+                zoomTo(1.0f, getWidth() / 2F, getHeight() / 2F, ZOOM_DURATION_MS);
                 return true;
             }
         }
@@ -135,19 +186,22 @@ abstract class ImageViewTouchBase extends ImageView {
 
     @Override
     public void setImageBitmap(Bitmap bitmap) {
-        setImageBitmap(bitmap, 0);
+        setImageBitmap(bitmap, 0, false);
     }
 
-    private void setImageBitmap(Bitmap bitmap, int rotation) {
+    private void setImageBitmap(Bitmap bitmap, int rotation, boolean flipped) {
         super.setImageBitmap(bitmap);
         Drawable d = getDrawable();
         if (d != null) {
-            d.setDither(true);
+            d.setDither(!interacting);
+            d.setFilterBitmap(!interacting);
         }
 
         Bitmap old = bitmapDisplayed.getBitmap();
         bitmapDisplayed.setBitmap(bitmap);
         bitmapDisplayed.setRotation(rotation);
+        bitmapDisplayed.setFlipped(flipped);
+        invalidateBaseMatrix();
 
         if (old != null && old != bitmap && recycler != null) {
             recycler.recycle(old);
@@ -158,6 +212,11 @@ abstract class ImageViewTouchBase extends ImageView {
         setImageBitmapResetBase(null, true);
     }
 
+    // The Bitmap being shown, which is handed to the Recycler when it is replaced or cleared
+    Bitmap getDisplayedBitmap() {
+        return bitmapDisplayed.getBitmap();
+    }
+
 
     // This function changes bitmap, reset base matrix according to the size
     // of the bitmap, and optionally reset the supplementary matrix
@@ -179,7 +238,7 @@ abstract class ImageViewTouchBase extends ImageView {
 
         if (bitmap.getBitmap() != null) {
             getProperBaseMatrix(bitmap, baseMatrix, true);
-            setImageBitmap(bitmap.getBitmap(), bitmap.getRotation());
+            setImageBitmap(bitmap.getBitmap(), bitmap.getRotation(), bitmap.isFlipped());
         } else {
             baseMatrix.reset();
             setImageBitmap(null);
@@ -188,6 +247,7 @@ abstract class ImageViewTouchBase extends ImageView {
         if (resetSupp) {
             suppMatrix.reset();
         }
+        invalidateBaseMatrix();
         setImageMatrix(getImageViewMatrix());
         maxZoom = calculateMaxZoom();
     }
@@ -204,7 +264,8 @@ abstract class ImageViewTouchBase extends ImageView {
         }
         Matrix m = getImageViewMatrix();
 
-        RectF rect = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        RectF rect = centerRect;
+        rect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
         m.mapRect(rect);
 
         float height = rect.height();
@@ -238,8 +299,42 @@ abstract class ImageViewTouchBase extends ImageView {
         setImageMatrix(getImageViewMatrix());
     }
 
+    @TargetApi(Build.VERSION_CODES.KITKAT)
     private void init() {
         setScaleType(ImageView.ScaleType.MATRIX);
+
+        scroller = new OverScroller(getContext());
+        scaleDetector = new ScaleGestureDetector(getContext(), new ScaleListener());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Double tap and drag would fight with dragging the crop rectangle
+            scaleDetector.setQuickScaleEnabled(false);
+        }
+    }
+
+    // Feeds event to the pinch zoom detector, returning true while a pinch is in progress
+    protected boolean onScaleGestureEvent(MotionEvent event) {
+        scaleDetector.onTouchEvent(event);
+        return scaleDetector.isInProgress();
+    }
+
+    protected boolean isScaling() {
+        return scaleDetector.isInProgress();
+    }
+
+    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+        @Override
+        public boolean onScaleBegin(ScaleGestureDetector detector) {
+            cancelAnimation();
+            return bitmapDisplayed.getBitmap() != null;
+        }
+
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            float scale = getScale() * detector.getScaleFactor();
+            scale = Math.max(1F, Math.min(Math.max(1F, maxZoom), scale));
+            zoomTo(scale, detector.getFocusX(), detector.getFocusY());
+            return true;
+        }
     }
 
     protected float getValue(Matrix matrix, int whichValue) {
@@ -277,20 +372,55 @@ abstract class ImageViewTouchBase extends ImageView {
         matrix.postTranslate((viewWidth  - w * scale) / 2F, (viewHeight - h * scale) / 2F);
     }
 
-    // Combine the base matrix and the supp matrix to make the final matrix
+    // Must be called whenever baseMatrix, the bitmap, or the view size changes
+    protected void invalidateBaseMatrix() {
+        baseVersion++;
+        matrixVersion++;
+    }
+
+    // Must be called whenever suppMatrix changes
+    protected void invalidateSuppMatrix() {
+        matrixVersion++;
+    }
+
+    // The zoom and pan, for setSuppMatrix() to restore
+    void getSuppMatrix(Matrix out) {
+        out.set(suppMatrix);
+    }
+
+    // Restores a zoom and pan from getSuppMatrix(), keeping as much of the image in view as possible
+    void setSuppMatrix(Matrix m) {
+        suppMatrix.set(m);
+        invalidateSuppMatrix();
+        setImageMatrix(getImageViewMatrix());
+        center(true, true);
+    }
+
+    // Combine the base matrix and the supp matrix to make the final matrix.
+    // The returned matrix is cached, and must not be modified.
     protected Matrix getImageViewMatrix() {
-        // The final matrix is computed as the concatentation of the base matrix
-        // and the supplementary matrix
-        displayMatrix.set(baseMatrix);
-        displayMatrix.postConcat(suppMatrix);
+        if (displayVersion != matrixVersion) {
+            // The final matrix is computed as the concatentation of the base matrix
+            // and the supplementary matrix
+            displayMatrix.set(baseMatrix);
+            displayMatrix.postConcat(suppMatrix);
+            displayVersion = matrixVersion;
+        }
         return displayMatrix;
     }
 
+    // The returned matrix is cached, and must not be modified
     public Matrix getUnrotatedMatrix(){
-        Matrix unrotated = new Matrix();
-        getProperBaseMatrix(bitmapDisplayed, unrotated, false);
-        unrotated.postConcat(suppMatrix);
-        return unrotated;
+        if (unrotatedBaseVersion != baseVersion) {
+            getProperBaseMatrix(bitmapDisplayed, unrotatedBaseMatrix, false);
+            unrotatedBaseVersion = baseVersion;
+        }
+        if (unrotatedVersion != matrixVersion) {
+            unrotatedMatrix.set(unrotatedBaseMatrix);
+            unrotatedMatrix.postConcat(suppMatrix);
+            unrotatedVersion = matrixVersion;
+        }
+        return unrotatedMatrix;
     }
 
     protected float calculateMaxZoom() {
@@ -307,31 +437,24 @@ abstract class ImageViewTouchBase extends ImageView {
         if (scale > maxZoom) {
             scale = maxZoom;
         }
+        onInteraction();
 
         float oldScale = getScale();
         float deltaScale = scale / oldScale;
 
         suppMatrix.postScale(deltaScale, deltaScale, centerX, centerY);
+        invalidateSuppMatrix();
         setImageMatrix(getImageViewMatrix());
         center(true, true);
     }
 
     protected void zoomTo(final float scale, final float centerX,
                           final float centerY, final float durationMs) {
-        final float incrementPerMs = (scale - getScale()) / durationMs;
         final float oldScale = getScale();
-        final long startTime = System.currentTimeMillis();
-
-        handler.post(new Runnable() {
-            public void run() {
-                long now = System.currentTimeMillis();
-                float currentMs = Math.min(durationMs, now - startTime);
-                float target = oldScale + (incrementPerMs * currentMs);
-                zoomTo(target, centerX, centerY);
-
-                if (currentMs < durationMs) {
-                    handler.post(this);
-                }
+        animator.start((long) durationMs, interpolator, new FrameAnimator.Listener() {
+            @Override
+            public void onUpdate(float fraction) {
+                zoomTo(oldScale + (scale - oldScale) * fraction, centerX, centerY);
             }
         });
     }
@@ -362,6 +485,7 @@ abstract class ImageViewTouchBase extends ImageView {
         float cy = getHeight() / 2F;
 
         suppMatrix.postScale(rate, rate, cx, cy);
+        invalidateSuppMatrix();
         setImageMatrix(getImageViewMatrix());
     }
 
@@ -382,16 +506,178 @@ abstract class ImageViewTouchBase extends ImageView {
         } else {
             suppMatrix.postScale(1F / rate, 1F / rate, cx, cy);
         }
+        invalidateSuppMatrix();
         setImageMatrix(getImageViewMatrix());
         center(true, true);
     }
 
     protected void postTranslate(float dx, float dy) {
         suppMatrix.postTranslate(dx, dy);
+        invalidateSuppMatrix();
     }
 
     protected void panBy(float dx, float dy) {
+        onInteraction();
         postTranslate(dx, dy);
         setImageMatrix(getImageViewMatrix());
     }
+
+    // Pans by at most dx, dy, without uncovering the background on an axis that the image
+    // fills. This is a single translation, so the image doesn't need to be re-centered afterwards.
+    // Returns whether the image moved.
+    protected boolean panClamped(float dx, float dy) {
+        if (!getImageBounds(panRect)) {
+            return false;
+        }
+        dx = clampPan(dx, panRect.left, panRect.right, getWidth());
+        dy = clampPan(dy, panRect.top, panRect.bottom, getHeight());
+        if (dx == 0 && dy == 0) {
+            return false;
+        }
+        panBy(dx, dy);
+        return true;
+    }
+
+    private static float clampPan(float delta, float start, float end, int viewSize) {
+        if (end - start <= viewSize) {
+            return 0F;
+        }
+        return Math.max(viewSize - end, Math.min(-start, delta));
+    }
+
+    // Flings the image with the given velocity in pixels per second, stopping at its edges
+    protected void fling(float velocityX, float velocityY) {
+        if (!getImageBounds(panRect)) {
+            return;
+        }
+        int minX = 0, maxX = 0, minY = 0, maxY = 0;
+        if (panRect.width() > getWidth()) {
+            minX = Math.round(getWidth() - panRect.right);
+            maxX = Math.round(-panRect.left);
+        }
+        if (panRect.height() > getHeight()) {
+            minY = Math.round(getHeight() - panRect.bottom);
+            maxY = Math.round(-panRect.top);
+        }
+        if (minX == maxX && minY == maxY) {
+            return;
+        }
+
+        scroller.forceFinished(true);
+        scroller.fling(0, 0, Math.round(velocityX), Math.round(velocityY), minX, maxX, minY, maxY);
+        // The scroller does the deceleration, the animator only paces it to the frame clock
+        animator.start(scroller.getDuration(), flingInterpolator, new FrameAnimator.Listener() {
+            private int appliedX;
+            private int appliedY;
+
+            @Override
+            public void onUpdate(float fraction) {
+                scroller.computeScrollOffset();
+                int x = fraction < 1F ? scroller.getCurrX() : scroller.getFinalX();
+                int y = fraction < 1F ? scroller.getCurrY() : scroller.getFinalY();
+                panBy(x - appliedX, y - appliedY);
+                appliedX = x;
+                appliedY = y;
+            }
+        });
+    }
+
+    // Sets rect to the bounds of the image in view coordinates
+    private boolean getImageBounds(RectF rect) {
+        Bitmap bitmap = bitmapDisplayed.getBitmap();
+        if (bitmap == null) {
+            return false;
+        }
+        rect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        getImageViewMatrix().mapRect(rect);
+        return true;
+    }
+
+    protected void panBy(final float dx, final float dy, float durationMs) {
+        animator.start((long) durationMs, interpolator, new FrameAnimator.Listener() {
+            private float appliedX;
+            private float appliedY;
+
+            @Override
+            public void onUpdate(float fraction) {
+                float x = dx * fraction;
+                float y = dy * fraction;
+                panBy(x - appliedX, y - appliedY);
+                appliedX = x;
+                appliedY = y;
+            }
+        });
+    }
+
+    // Stops any running zoom, pan or fling animation where it is
+    protected void cancelAnimation() {
+        animator.cancel();
+        scroller.forceFinished(true);
+    }
+
+    public boolean isInteractionQualityEnabled() {
+        return interactionQualityEnabled;
+    }
+
+    // When enabled (the default), the image is drawn at a lower quality while it is being
+    // zoomed or panned, or while the crop rectangle is being changed, to keep frames fast
+    public void setInteractionQualityEnabled(boolean enabled) {
+        interactionQualityEnabled = enabled;
+        if (!enabled) {
+            setInteracting(false);
+        }
+    }
+
+    // Called on every frame that the image moves; full quality returns once it settles
+    protected void onInteraction() {
+        setInteracting(true);
+        removeCallbacks(settleRunnable);
+        postDelayed(settleRunnable, SETTLE_DELAY_MS);
+    }
+
+    // Keeps the lower quality until released, e.g. while a finger is down on the crop rectangle
+    void setInteractionHeld(boolean held) {
+        interactionHeld = held;
+        if (held) {
+            setInteracting(true);
+        } else {
+            removeCallbacks(settleRunnable);
+            postDelayed(settleRunnable, SETTLE_DELAY_MS);
+        }
+    }
+
+    protected boolean isInteracting() {
+        return interacting;
+    }
+
+    private void setInteracting(boolean interacting) {
+        interacting = interacting && interactionQualityEnabled;
+        if (this.interacting == interacting) {
+            return;
+        }
+        this.interacting = interacting;
+
+        Drawable d = getDrawable();
+        if (d != null) {
+            d.setDither(!interacting);
+            d.setFilterBitmap(!interacting);
+        }
+        onInteractingChanged(interacting);
+        invalidate();
+    }
+
+    // Lets subclasses switch their own drawing to match
+    protected void onInteractingChanged(boolean interacting) {
+    }
+
+    /**
+     * @return the number of display frames that were skipped while zoom and pan animations were running
+     */
+    public int getDroppedFrameCount() {
+        return animator.getDroppedFrameCount();
+    }
+
+    public void resetDroppedFrameCount() {
+        animator.resetDroppedFrameCount();
+    }
 }
@@ -0,0 +1,435 @@
+package com.isapp.android.crop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * A baseline JPEG encoder (4:4:4, standard Huffman tables) that encodes the
+ * image in 8 row bands as they are written, so that only one band of pixels
+ * needs to be buffered.
+ *
+ * Quality is scaled like libjpeg, so an opaque image decodes to the same pixels
+ * as Bitmap.compress() at the same quality, within rounding (chroma isn't
+ * subsampled, so it is a little sharper and bigger). Alpha is dropped, keeping
+ * the unpremultiplied color of translucent pixels, and no EXIF is written.
+ */
+class JpegStripeEncoder implements StripeEncoder {
+    private static final int BLOCK_SIZE = 8;
+
+    private static final int[] ZIGZAG = {
+         0,  1,  8, 16,  9,  2,  3, 10,
+        17, 24, 32, 25, 18, 11,  4,  5,
+        12, 19, 26, 33, 40, 48, 41, 34,
+        27, 20, 13,  6,  7, 14, 21, 28,
+        35, 42, 49, 56, 57, 50, 43, 36,
+        29, 22, 15, 23, 30, 37, 44, 51,
+        58, 59, 52, 45, 38, 31, 39, 46,
+        53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private static final int[] LUMINANCE_QUANT_TABLE = {
+        16, 11, 10, 16,  24,  40,  51,  61,
+        12, 12, 14, 19,  26,  58,  60,  55,
+        14, 13, 16, 24,  40,  57,  69,  56,
+        14, 17, 22, 29,  51,  87,  80,  62,
+        18, 22, 37, 56,  68, 109, 103,  77,
+        24, 35, 55, 64,  81, 104, 113,  92,
+        49, 64, 78, 87, 103, 121, 120, 101,
+        72, 92, 95, 98, 112, 100, 103,  99
+    };
+
+    private static final int[] CHROMINANCE_QUANT_TABLE = {
+        17, 18, 24, 47, 99, 99, 99, 99,
+        18, 21, 26, 66, 99, 99, 99, 99,
+        24, 26, 56, 99, 99, 99, 99, 99,
+        47, 66, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    private static final int[] DC_LUMINANCE_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_LUMINANCE_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    private static final int[] DC_CHROMINANCE_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMINANCE_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    private static final int[] AC_LUMINANCE_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMINANCE_VALUES = {
+        0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+        0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+        0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+        0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+        0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+        0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+        0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+        0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+        0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+        0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa
+    };
+
+    private static final int[] AC_CHROMINANCE_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMINANCE_VALUES = {
+        0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+        0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+        0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+        0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+        0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+        0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+        0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+        0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+        0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+        0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa
+    };
+
+    // Scale factors for the AAN forward DCT
+    private static final double[] AAN_SCALE_FACTORS = {
+        1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+
+    private final int[] luminanceQuant = new int[64];
+    private final int[] chrominanceQuant = new int[64];
+    private final float[] luminanceDivisors = new float[64];
+    private final float[] chrominanceDivisors = new float[64];
+
+    private final HuffmanTable dcLuminance = new HuffmanTable(DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES);
+    private final HuffmanTable acLuminance = new HuffmanTable(AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+    private final HuffmanTable dcChrominance = new HuffmanTable(DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES);
+    private final HuffmanTable acChrominance = new HuffmanTable(AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+    // One band of BLOCK_SIZE rows, converted to YCbCr and level shifted
+    private final float[] bandY;
+    private final float[] bandCb;
+    private final float[] bandCr;
+    private int bandRows;
+    private int rowsWritten;
+
+    private final float[] block = new float[64];
+    private final int[] quantized = new int[64];
+    private int lastDcY;
+    private int lastDcCb;
+    private int lastDcCr;
+
+    private int bitBuffer;
+    private int bitCount;
+
+    JpegStripeEncoder(OutputStream out, int width, int height, int quality) throws IOException {
+        if (width <= 0 || height <= 0 || width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("Illegal JPEG dimensions " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+
+        int paddedWidth = (width + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        bandY = new float[paddedWidth * BLOCK_SIZE];
+        bandCb = new float[paddedWidth * BLOCK_SIZE];
+        bandCr = new float[paddedWidth * BLOCK_SIZE];
+
+        initQuantTables(quality);
+        writeHeaders();
+    }
+
+    @Override
+    public void writeRows(int[] pixels, int rows) throws IOException {
+        if (rowsWritten + bandRows + rows > height) {
+            throw new IllegalStateException("Too many rows written");
+        }
+        for (int row = 0; row < rows; row++) {
+            convertRow(pixels, row * width, bandRows++);
+            if (bandRows == BLOCK_SIZE) {
+                encodeBand();
+            }
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (bandRows > 0) {
+            // Pad the last band by repeating its last row
+            int paddedWidth = bandY.length / BLOCK_SIZE;
+            int last = (bandRows - 1) * paddedWidth;
+            for (int row = bandRows; row < BLOCK_SIZE; row++) {
+                System.arraycopy(bandY, last, bandY, row * paddedWidth, paddedWidth);
+                System.arraycopy(bandCb, last, bandCb, row * paddedWidth, paddedWidth);
+                System.arraycopy(bandCr, last, bandCr, row * paddedWidth, paddedWidth);
+            }
+            encodeBand();
+        }
+        if (rowsWritten < height) {
+            throw new IllegalStateException("Expected " + height + " rows but only " + rowsWritten + " were written");
+        }
+
+        // Fill the last byte with 1 bits
+        if (bitCount > 0) {
+            int padding = 8 - bitCount;
+            writeBits((1 << padding) - 1, padding);
+        }
+        writeMarker(0xD9); // EOI
+        out.flush();
+    }
+
+    @Override
+    public void abort() {
+        // Only Java memory is held
+    }
+
+    private void convertRow(int[] pixels, int offset, int bandRow) {
+        int paddedWidth = bandY.length / BLOCK_SIZE;
+        int index = bandRow * paddedWidth;
+        for (int x = 0; x < paddedWidth; x++) {
+            // Pad to a whole block by repeating the last column
+            int pixel = pixels[offset + Math.min(x, width - 1)];
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            bandY[index + x] = 0.299F * r + 0.587F * g + 0.114F * b - 128F;
+            bandCb[index + x] = -0.168736F * r - 0.331264F * g + 0.5F * b;
+            bandCr[index + x] = 0.5F * r - 0.418688F * g - 0.081312F * b;
+        }
+    }
+
+    private void encodeBand() throws IOException {
+        int paddedWidth = bandY.length / BLOCK_SIZE;
+        for (int x = 0; x < paddedWidth; x += BLOCK_SIZE) {
+            lastDcY = encodeBlock(bandY, x, paddedWidth, luminanceDivisors, lastDcY, dcLuminance, acLuminance);
+            lastDcCb = encodeBlock(bandCb, x, paddedWidth, chrominanceDivisors, lastDcCb, dcChrominance, acChrominance);
+            lastDcCr = encodeBlock(bandCr, x, paddedWidth, chrominanceDivisors, lastDcCr, dcChrominance, acChrominance);
+        }
+        rowsWritten += Math.min(bandRows, height - rowsWritten);
+        bandRows = 0;
+    }
+
+    private int encodeBlock(float[] band, int x, int stride, float[] divisors, int lastDc,
+                            HuffmanTable dcTable, HuffmanTable acTable) throws IOException {
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            System.arraycopy(band, row * stride + x, block, row * BLOCK_SIZE, BLOCK_SIZE);
+        }
+        forwardDct(block);
+
+        for (int i = 0; i < 64; i++) {
+            int index = ZIGZAG[i];
+            quantized[i] = Math.round(block[index] * divisors[index]);
+        }
+
+        int diff = quantized[0] - lastDc;
+        int size = bitLength(diff);
+        writeCode(dcTable, size);
+        if (size > 0) {
+            writeBits(diff < 0 ? diff - 1 : diff, size);
+        }
+
+        int run = 0;
+        for (int i = 1; i < 64; i++) {
+            int value = quantized[i];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                writeCode(acTable, 0xF0); // ZRL
+                run -= 16;
+            }
+            size = bitLength(value);
+            writeCode(acTable, (run << 4) | size);
+            writeBits(value < 0 ? value - 1 : value, size);
+            run = 0;
+        }
+        if (run > 0) {
+            writeCode(acTable, 0x00); // EOB
+        }
+
+        return quantized[0];
+    }
+
+    // Floating point AAN forward DCT (see jfdctflt.c in the IJG library). The output is scaled by the AAN factors,
+    // which are folded into the quantization divisors
+    private static void forwardDct(float[] data) {
+        for (int pass = 0; pass < 2; pass++) {
+            int step = pass == 0 ? 1 : BLOCK_SIZE;
+            int stride = pass == 0 ? BLOCK_SIZE : 1;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int o = i * stride;
+                float tmp0 = data[o] + data[o + 7 * step];
+                float tmp7 = data[o] - data[o + 7 * step];
+                float tmp1 = data[o + step] + data[o + 6 * step];
+                float tmp6 = data[o + step] - data[o + 6 * step];
+                float tmp2 = data[o + 2 * step] + data[o + 5 * step];
+                float tmp5 = data[o + 2 * step] - data[o + 5 * step];
+                float tmp3 = data[o + 3 * step] + data[o + 4 * step];
+                float tmp4 = data[o + 3 * step] - data[o + 4 * step];
+
+                // Even part
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+
+                data[o] = tmp10 + tmp11;
+                data[o + 4 * step] = tmp10 - tmp11;
+
+                float z1 = (tmp12 + tmp13) * 0.707106781F;
+                data[o + 2 * step] = tmp13 + z1;
+                data[o + 6 * step] = tmp13 - z1;
+
+                // Odd part
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+
+                float z5 = (tmp10 - tmp12) * 0.382683433F;
+                float z2 = 0.541196100F * tmp10 + z5;
+                float z4 = 1.306562965F * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781F;
+
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+
+                data[o + 5 * step] = z13 + z2;
+                data[o + 3 * step] = z13 - z2;
+                data[o + step] = z11 + z4;
+                data[o + 7 * step] = z11 - z4;
+            }
+        }
+    }
+
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    private void initQuantTables(int quality) {
+        quality = Math.max(1, Math.min(100, quality));
+        // IJG quality scaling
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        for (int i = 0; i < 64; i++) {
+            luminanceQuant[i] = Math.max(1, Math.min(255, (LUMINANCE_QUANT_TABLE[i] * scale + 50) / 100));
+            chrominanceQuant[i] = Math.max(1, Math.min(255, (CHROMINANCE_QUANT_TABLE[i] * scale + 50) / 100));
+        }
+
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                int i = row * BLOCK_SIZE + column;
+                double aan = AAN_SCALE_FACTORS[row] * AAN_SCALE_FACTORS[column] * 8.0;
+                luminanceDivisors[i] = (float) (1.0 / (luminanceQuant[i] * aan));
+                chrominanceDivisors[i] = (float) (1.0 / (chrominanceQuant[i] * aan));
+            }
+        }
+    }
+
+    private void writeHeaders() throws IOException {
+        writeMarker(0xD8); // SOI
+
+        // JFIF APP0
+        writeMarker(0xE0);
+        writeShort(16);
+        out.write(new byte[] {'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+
+        // Quantization tables, in zigzag order
+        writeMarker(0xDB);
+        writeShort(2 + 2 * 65);
+        out.write(0);
+        for (int i = 0; i < 64; i++) {
+            out.write(luminanceQuant[ZIGZAG[i]]);
+        }
+        out.write(1);
+        for (int i = 0; i < 64; i++) {
+            out.write(chrominanceQuant[ZIGZAG[i]]);
+        }
+
+        // Baseline frame with three components and no subsampling
+        writeMarker(0xC0);
+        writeShort(17);
+        out.write(8);
+        writeShort(height);
+        writeShort(width);
+        out.write(3);
+        for (int component = 1; component <= 3; component++) {
+            out.write(component);
+            out.write(0x11);
+            out.write(component == 1 ? 0 : 1);
+        }
+
+        writeHuffmanTable(0x00, DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x10, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x01, DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES);
+        writeHuffmanTable(0x11, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+        // Start of scan
+        writeMarker(0xDA);
+        writeShort(12);
+        out.write(3);
+        for (int component = 1; component <= 3; component++) {
+            out.write(component);
+            out.write(component == 1 ? 0x00 : 0x11);
+        }
+        out.write(0);
+        out.write(63);
+        out.write(0);
+    }
+
+    private void writeHuffmanTable(int tableClassAndId, int[] bits, int[] values) throws IOException {
+        writeMarker(0xC4);
+        writeShort(2 + 1 + 16 + values.length);
+        out.write(tableClassAndId);
+        for (int count : bits) {
+            out.write(count);
+        }
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+
+    private void writeMarker(int marker) throws IOException {
+        out.write(0xFF);
+        out.write(marker);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write((value >> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+
+    private void writeCode(HuffmanTable table, int symbol) throws IOException {
+        writeBits(table.codes[symbol], table.lengths[symbol]);
+    }
+
+    private void writeBits(int bits, int count) throws IOException {
+        bitBuffer = (bitBuffer << count) | (bits & ((1 << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            int b = (bitBuffer >> (bitCount - 8)) & 0xFF;
+            out.write(b);
+            if (b == 0xFF) {
+                // Byte stuffing
+                out.write(0);
+            }
+            bitCount -= 8;
+        }
+        bitBuffer &= (1 << bitCount) - 1;
+    }
+
+    private static class HuffmanTable {
+        final int[] codes = new int[256];
+        final int[] lengths = new int[256];
+
+        HuffmanTable(int[] bits, int[] values) {
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length - 1]; i++) {
+                    codes[values[k]] = code++;
+                    lengths[values[k]] = length;
+                    k++;
+                }
+                code <<= 1;
+            }
+        }
+    }
+}
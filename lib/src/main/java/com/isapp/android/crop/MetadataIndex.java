@@ -0,0 +1,164 @@
+package com.isapp.android.crop;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A persistent, process wide index of what probing an image found out (its size, MIME type,
+ * EXIF orientation and thumbnail location), so that reopening it doesn't have to probe it again.
+ *
+ * Images are identified by a string that has to change whenever the image does, like a path
+ * with the file's size and modification time. When the index is full, the least recently used
+ * entries are dropped, down to TRIM_TO_ENTRIES, so that a full index isn't sorted on every put.
+ */
+class MetadataIndex {
+    private static final String PREFS_NAME = "com.isapp.android.crop.metadata";
+    static final int MAX_ENTRIES = 256;
+    static final int TRIM_TO_ENTRIES = MAX_ENTRIES * 3 / 4;
+    // Use times are only rewritten this often, so reading an entry doesn't write the index every time
+    private static final long TOUCH_INTERVAL_MS = 24 * 60 * 60 * 1000;
+    private static final String SEPARATOR = ",";
+
+    private static MetadataIndex instance;
+
+    private final SharedPreferences prefs;
+    // The number of entries, counted once and then kept up to date, or -1 before it is counted
+    private int size = -1;
+
+    static class Entry {
+        final int width;
+        final int height;
+        final String mimeType;
+        final int orientation;
+        final long thumbnailOffset;
+        final int thumbnailLength;
+        final long lastUsed;
+
+        Entry(int width, int height, String mimeType, int orientation, long thumbnailOffset, int thumbnailLength) {
+            this(width, height, mimeType, orientation, thumbnailOffset, thumbnailLength, System.currentTimeMillis());
+        }
+
+        private Entry(int width, int height, String mimeType, int orientation, long thumbnailOffset,
+                      int thumbnailLength, long lastUsed) {
+            this.width = width;
+            this.height = height;
+            this.mimeType = mimeType;
+            this.orientation = orientation;
+            this.thumbnailOffset = thumbnailOffset;
+            this.thumbnailLength = thumbnailLength;
+            this.lastUsed = lastUsed;
+        }
+
+        private String encode() {
+            // The MIME type goes last, and is the only field that could hold the separator
+            return width + SEPARATOR + height + SEPARATOR + orientation + SEPARATOR + thumbnailOffset + SEPARATOR
+                    + thumbnailLength + SEPARATOR + lastUsed + SEPARATOR + (mimeType == null ? "" : mimeType);
+        }
+
+        // Returns null if value isn't a valid entry
+        private static Entry decode(String value) {
+            String[] fields = value.split(SEPARATOR, 7);
+            if (fields.length != 7) {
+                return null;
+            }
+            try {
+                int width = Integer.parseInt(fields[0]);
+                int height = Integer.parseInt(fields[1]);
+                if (width <= 0 || height <= 0) {
+                    return null;
+                }
+                return new Entry(width, height, fields[6].isEmpty() ? null : fields[6], Integer.parseInt(fields[2]),
+                        Long.parseLong(fields[3]), Integer.parseInt(fields[4]), Long.parseLong(fields[5]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    MetadataIndex(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    static synchronized MetadataIndex get(Context context) {
+        if (instance == null) {
+            instance = new MetadataIndex(context.getApplicationContext()
+                    .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return instance;
+    }
+
+    // Returns the entry for identity, or null
+    synchronized Entry get(String identity) {
+        String key = CropUtil.hash(identity);
+        String value = prefs.getString(key, null);
+        if (value == null) {
+            return null;
+        }
+        Entry entry = Entry.decode(value);
+        if (entry == null) {
+            prefs.edit().remove(key).apply();
+            if (size > 0) {
+                size--;
+            }
+        } else if (System.currentTimeMillis() - entry.lastUsed > TOUCH_INTERVAL_MS) {
+            prefs.edit().putString(key, new Entry(entry.width, entry.height, entry.mimeType, entry.orientation,
+                    entry.thumbnailOffset, entry.thumbnailLength).encode()).apply();
+        }
+        return entry;
+    }
+
+    synchronized void put(String identity, Entry entry) {
+        String key = CropUtil.hash(identity);
+        SharedPreferences.Editor editor = prefs.edit();
+        if (!prefs.contains(key)) {
+            if (size < 0) {
+                size = prefs.getAll().size();
+            }
+            if (size >= MAX_ENTRIES) {
+                trim(editor);
+            }
+            size++;
+        }
+        editor.putString(key, entry.encode());
+        editor.apply();
+    }
+
+    synchronized void clear() {
+        prefs.edit().clear().apply();
+        size = 0;
+    }
+
+    // Drops the least recently used entries, down to TRIM_TO_ENTRIES less the one about to be put
+    private void trim(SharedPreferences.Editor editor) {
+        Map<String, ?> all = prefs.getAll();
+        int excess = all.size() + 1 - TRIM_TO_ENTRIES;
+        size = all.size();
+        if (excess <= 0) {
+            return;
+        }
+        final List<Map.Entry<String, Long>> byUse = new ArrayList<>(all.size());
+        for (Map.Entry<String, ?> e : all.entrySet()) {
+            Entry entry = e.getValue() instanceof String ? Entry.decode((String) e.getValue()) : null;
+            byUse.add(new AbstractMap.SimpleEntry<>(e.getKey(), entry == null ? 0 : entry.lastUsed));
+        }
+        Collections.sort(byUse, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> lhs, Map.Entry<String, Long> rhs) {
+                long l = lhs.getValue();
+                long r = rhs.getValue();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < excess; i++) {
+            editor.remove(byUse.get(i).getKey());
+        }
+        size -= excess;
+    }
+}
@@ -0,0 +1,168 @@
+package com.isapp.android.crop;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/*
+ * A PNG encoder (8 bit RGBA) that compresses rows as they are written, so that
+ * the whole image never has to be in memory at once.
+ */
+class PngStripeEncoder implements StripeEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int FILTER_SUB = 1;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final DeflaterOutputStream idat;
+    private final byte[] row;
+    private int rowsWritten;
+
+    PngStripeEncoder(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Illegal PNG dimensions " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+
+        row = new byte[1 + width * BYTES_PER_PIXEL];
+        row[0] = FILTER_SUB;
+
+        out.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8); // Bit depth
+        header.write(COLOR_TYPE_RGBA);
+        header.write(0); // Compression
+        header.write(0); // Filter
+        header.write(0); // Interlace
+        writeChunk(out, "IHDR", header.toByteArray(), header.size());
+
+        idat = new DeflaterOutputStream(new ChunkOutputStream(out, "IDAT", IDAT_CHUNK_SIZE), deflater, IDAT_CHUNK_SIZE);
+    }
+
+    @Override
+    public void writeRows(int[] pixels, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("Too many rows written");
+        }
+        for (int y = 0; y < rows; y++) {
+            int offset = y * width;
+            int previous = 0;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[offset + x];
+                int i = 1 + x * BYTES_PER_PIXEL;
+                // The Sub filter stores the difference from the pixel to the left
+                row[i] = (byte) ((pixel >> 16) - (previous >> 16));
+                row[i + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+                row[i + 2] = (byte) (pixel - previous);
+                row[i + 3] = (byte) ((pixel >>> 24) - (previous >>> 24));
+                previous = pixel;
+            }
+            idat.write(row);
+        }
+        rowsWritten += rows;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (rowsWritten < height) {
+            throw new IllegalStateException("Expected " + height + " rows but only " + rowsWritten + " were written");
+        }
+        idat.finish();
+        // Flushes the last IDAT chunk
+        idat.flush();
+        deflater.end();
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    @Override
+    public void abort() {
+        // The Deflater's native state would otherwise live until it is finalized
+        deflater.end();
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write((value >>> 24) & 0xFF);
+        out.write((value >>> 16) & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        writeInt(out, length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    /*
+     * Splits whatever is written to it into chunks of at most chunkSize bytes.
+     * Closing it does not close the underlying stream.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final String type;
+        private final byte[] buffer;
+        private int count;
+
+        ChunkOutputStream(OutputStream out, String type, int chunkSize) {
+            this.out = out;
+            this.type = type;
+            this.buffer = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, type, buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
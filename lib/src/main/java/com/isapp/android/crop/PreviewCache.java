@@ -0,0 +1,87 @@
+package com.isapp.android.crop;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/*
+ * A process wide cache of decoded previews, so that a CropController recreated for the same
+ * image (after a rotation, say) can show it without decoding it again.
+ *
+ * A cached Bitmap may be on screen in any number of CropImageViews, so it is never recycled
+ * or pooled, even after it is evicted; the garbage collector frees it once nothing shows it.
+ */
+class PreviewCache implements ComponentCallbacks2 {
+    private static PreviewCache instance;
+
+    private final LruCache<String, Bitmap> cache;
+    // Every Bitmap that was ever cached and is still reachable
+    private final Set<Bitmap> owned = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+
+    PreviewCache(int maxBytes) {
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return BitmapPool.getByteCount(value);
+            }
+        };
+    }
+
+    static synchronized PreviewCache get(Context context) {
+        if (instance == null) {
+            instance = new PreviewCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8));
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    // Returns the preview of the image identified by identity, decoded with sampleSize, or null
+    Bitmap get(String identity, int sampleSize) {
+        Bitmap b = cache.get(getKey(identity, sampleSize));
+        return b == null || b.isRecycled() ? null : b;
+    }
+
+    synchronized void put(String identity, int sampleSize, Bitmap b) {
+        owned.add(b);
+        cache.put(getKey(identity, sampleSize), b);
+    }
+
+    // Returns true if b is, or was, cached, so that it must not be recycled or reused
+    synchronized boolean owns(Bitmap b) {
+        return owned.contains(b);
+    }
+
+    void clear() {
+        cache.evictAll();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // RUNNING_CRITICAL is the last warning before background processes are killed
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Nothing to do
+    }
+
+    private static String getKey(String identity, int sampleSize) {
+        return identity + "|" + sampleSize;
+    }
+}
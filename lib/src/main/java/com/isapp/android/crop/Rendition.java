@@ -0,0 +1,53 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+/**
+ * An extra output of a crop, at its own maximum size and format (a thumbnail, say). A crop with renditions is
+ * decoded once, at the size of its biggest output, and each smaller output is scaled down from the next bigger
+ * one, so asking for several sizes costs one decode.
+ */
+public final class Rendition {
+    final int maxWidth;
+    final int maxHeight;
+    final Bitmap.CompressFormat compressFormat;
+    final int compressionQuality;
+    final Uri output;
+
+    /**
+     * @param maxWidth Max width
+     * @param maxHeight Max height
+     * @param compressFormat The compression format to use
+     * @param compressionQuality The compression quality to use (must be 1-100)
+     * @param output Output image URI
+     *
+     * @throws java.lang.IllegalArgumentException if {@code maxWidth <= 0 || maxHeight <= 0}, if
+     * {@code compressFormat} or {@code output} is {@code null}, or if
+     * {@code compressionQuality <= 0 || compressionQuality > 100}
+     */
+    public Rendition(int maxWidth, int maxHeight, Bitmap.CompressFormat compressFormat, int compressionQuality,
+                     Uri output) {
+        if(maxWidth <= 0 || maxHeight <= 0) {
+            throw new IllegalArgumentException(String.format("Illegal value for max size - %dx%d", maxWidth, maxHeight));
+        }
+        if(compressFormat == null) {
+            throw new IllegalArgumentException("CompressFormat cannot be null");
+        }
+        if(compressionQuality <=0 || compressionQuality > 100) {
+            throw new IllegalArgumentException(String.format("Illegal value for compressionQuality - %d", compressionQuality));
+        }
+        if(output == null) {
+            throw new IllegalArgumentException("Output URI cannot be null");
+        }
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.compressFormat = compressFormat;
+        this.compressionQuality = compressionQuality;
+        this.output = output;
+    }
+
+    public Uri getOutput() {
+        return output;
+    }
+}
@@ -26,31 +26,63 @@ class RotateBitmap {
 
     private Bitmap bitmap;
     private int rotation;
+    private boolean flipped;
+
+    // Cached, and rebuilt when the bitmap size or rotation changes
+    private final Matrix rotateMatrix = new Matrix();
+    private boolean rotateMatrixValid;
+    private int rotateMatrixWidth;
+    private int rotateMatrixHeight;
 
     public RotateBitmap(Bitmap bitmap, int rotation) {
+        this(bitmap, rotation, false);
+    }
+
+    // flipped mirrors the bitmap horizontally after rotating it
+    public RotateBitmap(Bitmap bitmap, int rotation, boolean flipped) {
         this.bitmap = bitmap;
         this.rotation = rotation % 360;
+        this.flipped = flipped;
     }
 
     public void setRotation(int rotation) {
         this.rotation = rotation;
+        rotateMatrixValid = false;
     }
 
     public int getRotation() {
         return rotation;
     }
 
+    public void setFlipped(boolean flipped) {
+        this.flipped = flipped;
+        rotateMatrixValid = false;
+    }
+
+    public boolean isFlipped() {
+        return flipped;
+    }
+
     public Bitmap getBitmap() {
         return bitmap;
     }
 
     public void setBitmap(Bitmap bitmap) {
         this.bitmap = bitmap;
+        rotateMatrixValid = false;
     }
 
+    // The returned matrix is cached, and must not be modified
     public Matrix getRotateMatrix() {
+        int width = bitmap == null ? 0 : bitmap.getWidth();
+        int height = bitmap == null ? 0 : bitmap.getHeight();
+        if (rotateMatrixValid && width == rotateMatrixWidth && height == rotateMatrixHeight) {
+            return rotateMatrix;
+        }
+
         // By default this is an identity matrix
-        Matrix matrix = new Matrix();
+        Matrix matrix = rotateMatrix;
+        matrix.reset();
         if (bitmap != null && rotation != 0) {
             // We want to do the rotation at origin, but since the bounding
             // rectangle will be changed after rotation, so the delta values
@@ -61,6 +93,12 @@ class RotateBitmap {
             matrix.postRotate(rotation);
             matrix.postTranslate(getWidth() / 2, getHeight() / 2);
         }
+        if (bitmap != null && flipped) {
+            matrix.postScale(-1F, 1F, getWidth() / 2F, getHeight() / 2F);
+        }
+        rotateMatrixValid = true;
+        rotateMatrixWidth = width;
+        rotateMatrixHeight = height;
         return matrix;
     }
 
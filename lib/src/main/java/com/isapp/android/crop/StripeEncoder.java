@@ -0,0 +1,18 @@
+package com.isapp.android.crop;
+
+import java.io.IOException;
+
+/*
+ * Encodes an image that is handed over a few rows at a time, so that the
+ * whole image never has to be in memory at once.
+ */
+interface StripeEncoder {
+    // pixels holds rows * width ARGB_8888 pixels; rows are passed in top to bottom order
+    void writeRows(int[] pixels, int rows) throws IOException;
+
+    // Must be called after the last row has been written
+    void finish() throws IOException;
+
+    // Releases what the encoder holds, whether or not it finished. Does nothing if called again.
+    void abort();
+}
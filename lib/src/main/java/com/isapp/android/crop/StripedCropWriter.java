@@ -0,0 +1,183 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Decodes a region of an image in horizontal bands, scales each band to the
+ * output size, and streams it into a StripeEncoder, so that only a few bands
+ * are in memory at any time instead of the whole output.
+ *
+ * Each decoder decodes one band at a time, so passing several decoders (each
+ * backed by its own stream) decodes bands in parallel.
+ */
+class StripedCropWriter {
+    // Band height in output rows; a multiple of the JPEG block size
+    static final int STRIPE_HEIGHT = 256;
+
+    /*
+     * Decodes bands for every save. Each save has at most one band per decoder (plus one waiting for a decoder)
+     * in flight, so its own decoders bound its parallelism, not the pool.
+     */
+    private static final ExecutorService BAND_EXECUTOR = Executors.newCachedThreadPool();
+
+    private final List<BitmapRegionDecoder> decoders;
+    private final BitmapPool bitmapPool;
+    private final Rect rect;
+    private final int outWidth;
+    private final int outHeight;
+
+    // rect is in the coordinates of the decoders' image
+    StripedCropWriter(List<BitmapRegionDecoder> decoders, BitmapPool bitmapPool, Rect rect, int outWidth, int outHeight) {
+        if (decoders.isEmpty()) {
+            throw new IllegalArgumentException("At least one decoder is needed");
+        }
+        this.decoders = decoders;
+        this.bitmapPool = bitmapPool;
+        this.rect = rect;
+        this.outWidth = outWidth;
+        this.outHeight = outHeight;
+    }
+
+    static boolean isSupported(Bitmap.CompressFormat format) {
+        return format == Bitmap.CompressFormat.JPEG || format == Bitmap.CompressFormat.PNG;
+    }
+
+    static StripeEncoder newEncoder(Bitmap.CompressFormat format, int quality, OutputStream out,
+                                    int width, int height) throws IOException {
+        switch (format) {
+            case JPEG:
+                return new JpegStripeEncoder(out, width, height, quality);
+            case PNG:
+                return new PngStripeEncoder(out, width, height);
+            default:
+                throw new IllegalArgumentException("Striped encoding is not supported for " + format);
+        }
+    }
+
+    void write(StripeEncoder encoder) throws IOException, InterruptedException {
+        final int sampleSize = CropUtil.calculateInSampleSize(rect.width(), rect.height(), outWidth, outHeight);
+        final BlockingQueue<BitmapRegionDecoder> idleDecoders = new LinkedBlockingQueue<>(decoders);
+        final ArrayDeque<Future<Bitmap>> pending = new ArrayDeque<>();
+        // Set when the write fails or is cancelled, so that bands that haven't started are skipped
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        int[] pixels = new int[outWidth * STRIPE_HEIGHT];
+        int nextRow = 0;
+        int rowsWritten = 0;
+        try {
+            while (rowsWritten < outHeight) {
+                // Keep every decoder busy, with one more band queued up while the encoder catches up
+                while (nextRow < outHeight && pending.size() <= decoders.size()) {
+                    final int top = nextRow;
+                    final int bottom = Math.min(outHeight, top + STRIPE_HEIGHT);
+                    pending.add(BAND_EXECUTOR.submit(new Callable<Bitmap>() {
+                        @Override
+                        public Bitmap call() throws Exception {
+                            if (stopped.get()) {
+                                return null;
+                            }
+                            BitmapRegionDecoder decoder = idleDecoders.take();
+                            try {
+                                return decodeBand(decoder, top, bottom, sampleSize);
+                            } finally {
+                                idleDecoders.add(decoder);
+                            }
+                        }
+                    }));
+                    nextRow = bottom;
+                }
+
+                Bitmap band = getBand(pending.poll());
+                int rows = band.getHeight();
+                band.getPixels(pixels, 0, outWidth, 0, 0, outWidth, rows);
+                bitmapPool.put(band);
+
+                encoder.writeRows(pixels, rows);
+                rowsWritten += rows;
+            }
+            encoder.finish();
+        } finally {
+            // A running decodeRegion() can't be stopped, and the caller recycles the decoders once this returns,
+            // which isn't safe during a decode before API 19. So every band is waited for instead of cancelled.
+            stopped.set(true);
+            for (Future<Bitmap> future : pending) {
+                discardBand(future);
+            }
+        }
+    }
+
+    // Waits for a band that is no longer needed, and puts it back in the pool
+    private void discardBand(Future<Bitmap> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    Bitmap band = future.get();
+                    if (band != null) {
+                        bitmapPool.put(band);
+                    }
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Bitmap decodeBand(BitmapRegionDecoder decoder, int top, int bottom, int sampleSize) throws IOException {
+        // Map the output rows back to source rows
+        float scale = (float) rect.height() / outHeight;
+        int sourceTop = rect.top + Math.round(top * scale);
+        int sourceBottom = Math.max(sourceTop + 1, rect.top + Math.round(bottom * scale));
+        Rect band = new Rect(rect.left, sourceTop, rect.right, Math.min(sourceBottom, rect.bottom));
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        Bitmap bitmap = decoder.decodeRegion(band, options);
+        if (bitmap == null) {
+            throw new IOException("Could not decode " + band);
+        }
+
+        // Every band is the same size, so the scaled bands are drawn from the pool after the first few
+        return bitmapPool.scale(bitmap, outWidth, bottom - top);
+    }
+
+    private static Bitmap getBand(Future<Bitmap> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.isapp.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.LongSparseArray;
+import android.view.View;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Draws full resolution tiles on top of a downsampled base layer.
+ *
+ * Only the tiles that intersect the view are decoded, at the sample size that
+ * the current zoom level needs. Tiles that scroll out of view are evicted.
+ * Tiles decoded for a different zoom level are drawn underneath until the
+ * current level's tiles over them are decoded, and are evicted then, so that
+ * changing zoom levels never falls back to the blurry base layer. All of the
+ * methods except the decoding itself must be called on the main thread.
+ */
+class TileRenderer {
+    // Tile edge length in decoded pixels
+    private static final int TILE_SIZE = 256;
+
+    // Decoding is serialized so that a single BitmapRegionDecoder is never used concurrently,
+    // and so that recycling the decoder can't race with a decode
+    private static final ExecutorService DECODE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final View view;
+    private final BitmapPool bitmapPool;
+
+    private BitmapRegionDecoder decoder;
+    private int imageWidth;
+    private int imageHeight;
+
+    private final LongSparseArray<Tile> tiles = new LongSparseArray<>();
+
+    private final Matrix inverseMatrix = new Matrix();
+    private final Matrix tileMatrix = new Matrix();
+    private final RectF visibleRect = new RectF();
+    private final float[] matrixValues = new float[9];
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // While paused, only tiles that are already decoded are drawn, without filtering
+    private boolean paused;
+
+    TileRenderer(View view) {
+        this.view = view;
+        this.bitmapPool = BitmapPool.get(view.getContext());
+    }
+
+    /*
+     * Takes ownership of decoder; the previous decoder (if any) is recycled.
+     * imageWidth and imageHeight are the unrotated dimensions of the full image.
+     */
+    void setSource(BitmapRegionDecoder decoder, int imageWidth, int imageHeight) {
+        evictAll();
+        recycleDecoder(this.decoder);
+
+        this.decoder = decoder;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+    }
+
+    boolean hasSource() {
+        return decoder != null;
+    }
+
+    int getImageWidth() {
+        return imageWidth;
+    }
+
+    int getImageHeight() {
+        return imageHeight;
+    }
+
+    void release() {
+        setSource(null, 0, 0);
+    }
+
+    /*
+     * Pausing stops tiles from being decoded or evicted, so that only the base layer and
+     * the tiles already in memory are drawn. The view must be redrawn after resuming.
+     */
+    void setPaused(boolean paused) {
+        this.paused = paused;
+        tilePaint.setFilterBitmap(!paused);
+    }
+
+    /*
+     * imageMatrix maps the base layer to the view, and baseWidth is the width of the
+     * (unrotated) base layer bitmap.
+     */
+    void draw(Canvas canvas, Matrix imageMatrix, int baseWidth) {
+        if (decoder == null || baseWidth <= 0 || !imageMatrix.invert(inverseMatrix)) {
+            return;
+        }
+
+        // How many base layer pixels there are per full image pixel
+        final float baseScale = (float) baseWidth / imageWidth;
+
+        imageMatrix.getValues(matrixValues);
+        // Account for rotation when pulling the scale out of the matrix
+        final float scale = (float) Math.hypot(matrixValues[Matrix.MSCALE_X], matrixValues[Matrix.MSKEW_Y]);
+        final int sampleSize = calculateSampleSize(scale * baseScale);
+
+        // Nothing to add if the base layer is already detailed enough
+        if (sampleSize >= 1F / baseScale) {
+            if (!paused) {
+                evictAll();
+            }
+            return;
+        }
+
+        // Map the view to full image coordinates
+        visibleRect.set(0, 0, view.getWidth(), view.getHeight());
+        inverseMatrix.mapRect(visibleRect);
+        visibleRect.left /= baseScale;
+        visibleRect.top /= baseScale;
+        visibleRect.right /= baseScale;
+        visibleRect.bottom /= baseScale;
+        if (!visibleRect.intersect(0, 0, imageWidth, imageHeight)) {
+            if (!paused) {
+                evictAll();
+            }
+            return;
+        }
+
+        final int tileSourceSize = TILE_SIZE * sampleSize;
+        final int firstColumn = (int) (visibleRect.left / tileSourceSize);
+        final int lastColumn = (int) Math.min((imageWidth - 1) / tileSourceSize, visibleRect.right / tileSourceSize);
+        final int firstRow = (int) (visibleRect.top / tileSourceSize);
+        final int lastRow = (int) Math.min((imageHeight - 1) / tileSourceSize, visibleRect.bottom / tileSourceSize);
+
+        for (int i = 0; i < tiles.size(); i++) {
+            tiles.valueAt(i).visible = false;
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final long key = key(sampleSize, row, column);
+                Tile tile = tiles.get(key);
+                if (tile == null && paused) {
+                    continue;
+                }
+                if (tile == null) {
+                    int left = column * tileSourceSize;
+                    int top = row * tileSourceSize;
+                    tile = new Tile(sampleSize, new Rect(left, top,
+                            Math.min(left + tileSourceSize, imageWidth), Math.min(top + tileSourceSize, imageHeight)));
+                    tiles.put(key, tile);
+                    decode(tile);
+                }
+                tile.visible = true;
+            }
+        }
+
+        // Tiles of other zoom levels are kept, and drawn first, wherever the current level is still decoding.
+        // Keys start with the sample size, so going backwards draws coarser levels under finer ones.
+        for (int i = tiles.size() - 1; i >= 0; i--) {
+            Tile tile = tiles.valueAt(i);
+            if (tile.sampleSize == sampleSize || tile.bitmap == null) {
+                continue;
+            }
+            tile.visible = tile.sourceRect.intersects((int) visibleRect.left, (int) visibleRect.top,
+                    (int) Math.ceil(visibleRect.right), (int) Math.ceil(visibleRect.bottom))
+                    && !isCovered(tile.sourceRect, sampleSize, firstRow, lastRow, firstColumn, lastColumn);
+            if (tile.visible) {
+                drawTile(canvas, tile, imageMatrix, baseScale);
+            }
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Tile tile = tiles.get(key(sampleSize, row, column));
+                if (tile != null && tile.bitmap != null) {
+                    drawTile(canvas, tile, imageMatrix, baseScale);
+                }
+            }
+        }
+
+        if (paused) {
+            return;
+        }
+        for (int i = tiles.size() - 1; i >= 0; i--) {
+            Tile tile = tiles.valueAt(i);
+            if (!tile.visible) {
+                tile.evict(bitmapPool);
+                tiles.removeAt(i);
+            }
+        }
+    }
+
+    // Whether every tile of sampleSize that overlaps sourceRect, within the given rows and columns, is decoded
+    private boolean isCovered(Rect sourceRect, int sampleSize, int firstRow, int lastRow,
+                              int firstColumn, int lastColumn) {
+        final int tileSourceSize = TILE_SIZE * sampleSize;
+        final int rowEnd = Math.min(lastRow, (sourceRect.bottom - 1) / tileSourceSize);
+        final int columnEnd = Math.min(lastColumn, (sourceRect.right - 1) / tileSourceSize);
+        for (int row = Math.max(firstRow, sourceRect.top / tileSourceSize); row <= rowEnd; row++) {
+            for (int column = Math.max(firstColumn, sourceRect.left / tileSourceSize); column <= columnEnd; column++) {
+                Tile tile = tiles.get(key(sampleSize, row, column));
+                if (tile == null || tile.bitmap == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void drawTile(Canvas canvas, Tile tile, Matrix imageMatrix, float baseScale) {
+        setTileMatrix(tileMatrix, imageMatrix, baseScale, tile.sourceRect, tile.sampleSize);
+        canvas.drawBitmap(tile.bitmap, tileMatrix, tilePaint);
+    }
+
+    // Sets out to map a tile's decoded pixels to the view
+    static void setTileMatrix(Matrix out, Matrix imageMatrix, float baseScale, Rect sourceRect, int sampleSize) {
+        out.set(imageMatrix);
+        out.preScale(baseScale, baseScale);
+        out.preTranslate(sourceRect.left, sourceRect.top);
+        out.preScale(sampleSize, sampleSize);
+    }
+
+    // The largest power of 2 sample size that still has at least one decoded pixel per screen pixel
+    static int calculateSampleSize(float screenPixelsPerImagePixel) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * screenPixelsPerImagePixel <= 1F) {
+            sampleSize = sampleSize << 1;
+        }
+        return sampleSize;
+    }
+
+    static long key(int sampleSize, int row, int column) {
+        return ((long) sampleSize << 48) | ((long) row << 24) | column;
+    }
+
+    private void decode(final Tile tile) {
+        final BitmapRegionDecoder decoder = this.decoder;
+        DECODE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (tile.evicted) {
+                    return;
+                }
+
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = tile.sampleSize;
+                options.inMutable = true;
+                if (tile.sourceRect.width() == TILE_SIZE * tile.sampleSize
+                        && tile.sourceRect.height() == TILE_SIZE * tile.sampleSize) {
+                    // Whole tiles are all the same size, so they can be decoded into evicted ones
+                    options.inBitmap = bitmapPool.getExact(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+                }
+                Bitmap bitmap = null;
+                try {
+                    bitmap = decoder.decodeRegion(tile.sourceRect, options);
+                } catch (RuntimeException | OutOfMemoryError ignored) {
+                    // The base layer is still shown, so a missing tile is not fatal
+                }
+                if (bitmap == null && options.inBitmap != null) {
+                    bitmapPool.put(options.inBitmap);
+                }
+
+                final Bitmap decoded = bitmap;
+                view.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (decoded == null) {
+                            return;
+                        }
+                        if (tile.evicted) {
+                            bitmapPool.put(decoded);
+                            return;
+                        }
+                        tile.bitmap = decoded;
+                        view.invalidate();
+                    }
+                });
+            }
+        });
+    }
+
+    private void evictAll() {
+        for (int i = 0; i < tiles.size(); i++) {
+            tiles.valueAt(i).evict(bitmapPool);
+        }
+        tiles.clear();
+    }
+
+    private static void recycleDecoder(final BitmapRegionDecoder decoder) {
+        if (decoder == null) {
+            return;
+        }
+        DECODE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                decoder.recycle();
+            }
+        });
+    }
+
+    private static class Tile {
+        final int sampleSize;
+        final Rect sourceRect; // Full image space
+        Bitmap bitmap;
+        boolean visible;
+        volatile boolean evicted;
+
+        Tile(int sampleSize, Rect sourceRect) {
+            this.sampleSize = sampleSize;
+            this.sourceRect = sourceRect;
+        }
+
+        void evict(BitmapPool bitmapPool) {
+            evicted = true;
+            if (bitmap != null) {
+                bitmapPool.put(bitmap);
+                bitmap = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.isapp.android.crop;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * An ImageSource for a content or file Uri. The Uri is opened once as a file
+ * descriptor. If the provider only hands out a pipe (or no descriptor at all),
+ * the image is copied into the DiskCache once and read from there. If the
+ * provider doesn't say enough to tell one version of the image from another,
+ * each stream reopens the Uri instead.
+ */
+class UriImageSource extends DescriptorImageSource {
+    private final Context context;
+    private final Uri uri;
+
+    private ParcelFileDescriptor pfd;
+    private boolean contentKeyQueried;
+    private String contentKey;
+
+    UriImageSource(Context context, Uri uri) {
+        this.context = context.getApplicationContext();
+        this.uri = uri;
+    }
+
+    @Override
+    protected FileInputStream openFile() throws IOException {
+        try {
+            pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException | SecurityException | UnsupportedOperationException e) {
+            pfd = null;
+        }
+        FileInputStream input = null;
+        if (pfd != null) {
+            input = new FileInputStream(pfd.getFileDescriptor());
+            if (isSeekable(input)) {
+                return input;
+            }
+        }
+        try {
+            return openCachedFile(input);
+        } finally {
+            if (input != null) {
+                closeFile(input);
+            }
+        }
+    }
+
+    @Override
+    protected String getIdentity() throws IOException {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+            return getFileIdentity(new File(uri.getPath()));
+        }
+        String key = getContentKey();
+        return key != null ? key : super.getIdentity();
+    }
+
+    private static boolean isSeekable(FileInputStream input) {
+        try {
+            input.getChannel().position(0);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Returns the image from the DiskCache, copying it there first if needed, or null if it can't be cached.
+     * pipe is the unseekable descriptor the provider handed out, if any, which is copied instead of reopening the Uri.
+     */
+    private FileInputStream openCachedFile(InputStream pipe) throws IOException {
+        String key = getContentKey();
+        if (key == null) {
+            return null;
+        }
+        DiskCache cache = DiskCache.get(context);
+        File file = cache.get(key);
+        if (file == null) {
+            InputStream is = pipe != null ? pipe : openFallbackStream();
+            try {
+                file = cache.put(key, is);
+            } finally {
+                if (is != pipe) {
+                    CropUtil.closeSilently(is);
+                }
+            }
+        }
+        // An entry evicted after this stays readable through the open descriptor
+        return new FileInputStream(file);
+    }
+
+    /*
+     * The Uri alone doesn't identify the content, since a document can change behind the same Uri.
+     * Returns null if the provider doesn't report a modification time, either as a document's
+     * last_modified or as MediaStore's date_modified.
+     */
+    private synchronized String getContentKey() {
+        if (contentKeyQueried) {
+            return contentKey;
+        }
+        contentKeyQueried = true;
+        long size = -1;
+        long lastModified = -1;
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(uri, null, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                size = getLong(cursor, OpenableColumns.SIZE);
+                // DocumentsContract.Document.COLUMN_LAST_MODIFIED
+                lastModified = getLong(cursor, "last_modified");
+                if (lastModified < 0) {
+                    // In seconds, which is still finer than the image changes in practice
+                    long dateModified = getLong(cursor, MediaStore.MediaColumns.DATE_MODIFIED);
+                    lastModified = dateModified < 0 ? -1 : dateModified * 1000;
+                }
+            }
+        } catch (RuntimeException ignored) {
+            // The provider doesn't support queries
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        // The size alone isn't enough, since rewriting the EXIF orientation usually keeps it
+        if (lastModified >= 0) {
+            contentKey = uri + "|" + size + "|" + lastModified;
+        }
+        return contentKey;
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index < 0 || cursor.isNull(index) ? -1 : cursor.getLong(index);
+    }
+
+    @Override
+    protected void closeFile(FileInputStream input) {
+        super.closeFile(input);
+        CropUtil.closeSilently(pfd);
+        pfd = null;
+    }
+
+    @Override
+    protected int queryExifOrientation() {
+        // MediaStore already knows the rotation of its images. It maps mirrored orientations
+        // to 0 though, so those still need the EXIF data.
+        int degrees = queryMediaStoreOrientation();
+        if (degrees > 0) {
+            return CropUtil.getExifOrientation(degrees);
+        }
+        return super.queryExifOrientation();
+    }
+
+    private int queryMediaStoreOrientation() {
+        if (!MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            return -1;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(uri,
+                    new String[] { MediaStore.Images.ImageColumns.ORIENTATION }, null, null, null);
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getInt(0);
+            }
+        } catch (RuntimeException ignored) {
+            // Not an image, or no permission to query it
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return -1;
+    }
+
+    @Override
+    protected InputStream openFallbackStream() throws IOException {
+        InputStream is = context.getContentResolver().openInputStream(uri);
+        if (is == null) {
+            throw new FileNotFoundException("Could not open " + uri);
+        }
+        return is;
+    }
+}